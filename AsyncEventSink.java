@@ -0,0 +1,100 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The AsyncEventSink class hands messages to a background thread that passes them on to another sink
+ * Reporting a message only queues it, so slow output such as a console or a disk never holds up the caller.
+ * The queue is bounded: when the writer falls that far behind, new messages are dropped and counted rather than piling up in memory.
+ */
+
+public class AsyncEventSink implements EventSink, AutoCloseable {
+
+    /** Queued to tell the writer to stop once everything before it has been passed on */
+    private static final String CLOSE = new String("close");
+
+    /** The sink the writer passes messages on to */
+    private final EventSink target;
+
+    /** Messages waiting for the writer */
+    private final BlockingQueue<String> queue;
+
+    /** The number of messages dropped because the queue was full */
+    private final LongAdder nDropped = new LongAdder();
+
+    /** The background thread that passes queued messages on */
+    private final Thread writer;
+
+    /**
+     * Creates a new AsyncEventSink and starts its writer thread
+     *
+     * @param target the sink to pass messages on to
+     * @param capacity the most messages that may wait for the writer at once
+     * @throws RuntimeException if the capacity is not positive
+     */
+
+    public AsyncEventSink(EventSink target, int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("An event queue must hold at least 1 message.");
+        }
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<String>(capacity);
+        this.writer = new Thread(this::passOn, "event-writer");
+        this.writer.setDaemon(true); // queued messages must not keep the program alive; close() flushes them
+        this.writer.start();
+    }
+
+    /**
+     * Queues a message for the writer, or drops it if the queue is full
+     *
+     * @param message the message to record
+     */
+
+    public void report(String message) {
+        if (!this.queue.offer(message)) {
+            this.nDropped.increment();
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because the writer had fallen behind
+     *
+     * @return the number of dropped messages
+     */
+
+    public long getDropped() {
+        return this.nDropped.sum();
+    }
+
+    /**
+     * Passes on every message queued so far, then stops the writer
+     *
+     * @throws RuntimeException if interrupted while waiting for the writer
+     */
+
+    public void close() {
+        try {
+            this.queue.put(CLOSE);
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while flushing the event queue", e);
+        }
+    }
+
+    /**
+     * Runs on the writer thread: passes messages on in the order they were queued until close() is called
+     */
+
+    private void passOn() {
+        try {
+            String message;
+            while ((message = this.queue.take()) != CLOSE) {
+                this.target.report(message);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
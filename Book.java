@@ -0,0 +1,165 @@
+/**
+ * The Book class represents a single title held by a Library
+ * A Book keeps its title, author and ISBN as separate fields so the Library can index it by any of them
+ */
+
+public class Book {
+
+    /** The title of the book */
+    private final String title;
+
+    /** The author of the book, or null if unknown */
+    private final String author;
+
+    /** The ISBN of the book as it was entered, or null if unknown */
+    private final String isbn;
+
+    /** The ISBN packed into a long (see packIsbn()), or 0 if the ISBN is unknown */
+    private final long packedIsbn;
+
+    /**
+     * Creates a new Book with the given title, author, and ISBN
+     *
+     * @param title the title of the book
+     * @param author the author of the book, or null if unknown
+     * @param isbn the ISBN of the book, or null if unknown
+     * @throws RuntimeException if the title is missing or the ISBN is not valid
+     */
+
+    public Book(String title, String author, String isbn) {
+        if (title == null || title.trim().isEmpty()) {
+            throw new RuntimeException("Cannot create a book without a title.");
+        }
+        this.title = title.trim();
+        this.author = (author == null) ? null : author.trim();
+        this.isbn = (isbn == null || isbn.trim().isEmpty()) ? null : isbn.trim();
+        this.packedIsbn = (this.isbn == null) ? 0 : packIsbn(this.isbn);
+    }
+
+    /**
+     * Returns the title of the book
+     *
+     * @return the title of the book
+     */
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    /**
+     * Returns the author of the book
+     *
+     * @return the author of the book, or null if unknown
+     */
+
+    public String getAuthor() {
+        return this.author;
+    }
+
+    /**
+     * Returns the ISBN of the book
+     *
+     * @return the ISBN of the book, or null if unknown
+     */
+
+    public String getIsbn() {
+        return this.isbn;
+    }
+
+    /**
+     * Returns the ISBN of the book packed into a long, for use as an index key
+     *
+     * @return the packed ISBN, or 0 if unknown
+     */
+
+    public long getPackedIsbn() {
+        return this.packedIsbn;
+    }
+
+    /**
+     * Packs an ISBN-10 or ISBN-13 into a single long so it can be used as an index key
+     * Hyphens and spaces are ignored, and an ISBN-10 is converted to its ISBN-13 form first,
+     * so both forms of the same ISBN pack to the same key: the 13 digits of the ISBN-13 read as a number.
+     *
+     * @param isbn the ISBN to pack
+     * @return the packed ISBN
+     * @throws RuntimeException if the ISBN does not have 10 or 13 digits or its check digit is wrong
+     */
+
+    public static long packIsbn(String isbn) {
+        int[] digits = new int[13];
+        int nDigits = 0;
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            if (nDigits == 13) {
+                throw new RuntimeException("Invalid ISBN: " + isbn);
+            }
+            if (c >= '0' && c <= '9') {
+                digits[nDigits++] = c - '0';
+            } else if ((c == 'X' || c == 'x') && nDigits == 9) {
+                digits[nDigits++] = 10; // only the check digit of an ISBN-10 may be X
+            } else {
+                throw new RuntimeException("Invalid ISBN: " + isbn);
+            }
+        }
+        if (nDigits == 10) {
+            int sum = 0;
+            for (int i = 0; i < 10; i++) {
+                sum += (10 - i) * digits[i];
+            }
+            if (sum % 11 != 0) {
+                throw new RuntimeException("Invalid ISBN: " + isbn + " (wrong check digit)");
+            }
+            System.arraycopy(digits, 0, digits, 3, 9);
+            digits[0] = 9;
+            digits[1] = 7;
+            digits[2] = 8;
+            digits[12] = isbn13CheckDigit(digits);
+        } else if (nDigits != 13) {
+            throw new RuntimeException("Invalid ISBN: " + isbn + " (an ISBN has 10 or 13 digits)");
+        } else if (digits[12] != isbn13CheckDigit(digits)) {
+            throw new RuntimeException("Invalid ISBN: " + isbn + " (wrong check digit)");
+        }
+        long key = 0;
+        for (int digit : digits) {
+            key = key * 10 + digit;
+        }
+        return key;
+    }
+
+    /**
+     * Computes the check digit of an ISBN-13 from its first 12 digits
+     *
+     * @param digits the digits of the ISBN-13
+     * @return the check digit
+     */
+
+    private static int isbn13CheckDigit(int[] digits) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (i % 2 == 0) ? digits[i] : 3 * digits[i];
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Returns a String representation of this book, including its author and ISBN when known
+     *
+     * @return a String describing the book
+     */
+
+    public String toString() {
+        String description = this.title;
+        if (this.author != null) {
+            description += " by " + this.author;
+        }
+        if (this.isbn != null) {
+            description += " (ISBN: " + this.isbn + ")";
+        }
+        return description;
+    }
+
+}
@@ -1,9 +1,30 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
 public class Building {
 
+    private static volatile EventSink eventSink = EventSink.printingTo(System.out); // Where every building reports what happens
+
     protected String name;
     protected String address;
     protected int nFloors;
-    protected int activeFloor = -1; // Default value indicating we are not inside this building
+    protected boolean hasElevator; // Set by subclasses whose buildings have an elevator
+    private Elevator elevator; // Created the first time someone calls the elevator, see getElevator()
+    protected final AtomicInteger activeFloor = new AtomicInteger(-1); // -1 means we are not inside this building; changed only by compareAndSet
+    protected ConcurrentHashMap<String, Integer> visitorFloors = new ConcurrentHashMap<String, Integer>(); // Floor of each named visitor inside
+    protected AtomicIntegerArray floorOccupancy; // Number of people on each floor, index 0 is floor #1
+    private volatile AtomicIntegerArray[] visitFloors = new AtomicIntegerArray[0]; // Floor of each Visit by id, in chunks of VISIT_CHUNK; 0 = slot free
+    private int[] freeVisitIds = new int[16]; // Ids of ended visits, handed out again before new ones
+    private int nFreeVisitIds;
+    private int nextVisitId; // The lowest id never handed out
+    private static final int VISIT_CHUNK = 4096;
+    protected double latitude = Double.NaN; // Coordinates in degrees, NaN until the building has been located
+    protected double longitude = Double.NaN;
 
     /* Default constructor */
     public Building() {
@@ -29,6 +50,39 @@ public class Building {
             throw new RuntimeException("Cannot construct a building with fewer than 1 floor.");
         }
         this.nFloors = nFloors;
+        this.floorOccupancy = new AtomicIntegerArray(nFloors);
+    }
+
+    /* Sends the messages from every building, house, library, cafe and campus map to the given sink, e.g. an AsyncEventSink.
+       Pass EventSink.NONE or null to turn the messages off, e.g. for bulk jobs. */
+    public static void setEventSink(EventSink sink) {
+        eventSink = (sink == null) ? EventSink.NONE : sink;
+    }
+
+    /* Sends the messages to the given stream, e.g. a log file; pass null to turn them off, or System.out to turn them back on */
+    public static void setEventLog(PrintStream out) {
+        setEventSink((out == null) ? EventSink.NONE : EventSink.printingTo(out));
+    }
+
+    /* Returns whether messages are turned on, so callers can skip work that only feeds a message */
+    protected static boolean isLogging() {
+        return eventSink != EventSink.NONE;
+    }
+
+    /* Reports something that happened, if messages are turned on */
+    protected static void log(String message) {
+        EventSink sink = eventSink;
+        if (sink != EventSink.NONE) {
+            sink.report(message);
+        }
+    }
+
+    /* Overloaded log() that only builds the message if messages are turned on; use it wherever the message is put together per call */
+    protected static void log(Supplier<String> message) {
+        EventSink sink = eventSink;
+        if (sink != EventSink.NONE) {
+            sink.report(message.get());
+        }
     }
 
     /* Accessors */
@@ -44,45 +98,302 @@ public class Building {
         return this.nFloors;
     }
 
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    public boolean hasLocation() {
+        return !Double.isNaN(this.latitude) && !Double.isNaN(this.longitude);
+    }
+
+    /* Sets the coordinates of this building; CampusMap.geocode() calls this so its spatial index stays in step */
+    protected void setLocation(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /* Returns the distance in meters between two points, accurate to well under 1% at campus scale */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double metersPerDegree = 111320;
+        double dLat = (lat2 - lat1) * metersPerDegree;
+        double dLon = (lon2 - lon1) * metersPerDegree * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    /* Returns the distance in meters from this building to another, or NaN if either has not been located */
+    public double distanceTo(Building other) {
+        return distance(this.latitude, this.longitude, other.latitude, other.longitude);
+    }
+
+    public boolean hasElevator() {
+        return this.hasElevator;
+    }
+
+    /* Returns the number of people currently on the given floor */
+    public int getOccupancy(int floorNum) {
+        if (floorNum < 1 || floorNum > this.nFloors) {
+            throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
+        }
+        return this.floorOccupancy.get(floorNum - 1);
+    }
+
     /* Navigation methods */
     public Building enter() {
-        if (activeFloor != -1) {
+        if (!this.activeFloor.compareAndSet(-1, 1)) {
             throw new RuntimeException("You are already inside this Building.");
         }
-        this.activeFloor = 1;
-        System.out.println("You are now inside " + this.name + " on the ground floor.");
+        this.floorOccupancy.incrementAndGet(0);
+        log(() -> "You are now inside " + this.name + " on the ground floor.");
         return this; // Return a pointer to the current building
     }
 
+    /* Overloaded enter() for a named visitor, so many visitors can be inside at once */
+    public Building enter(String visitor) {
+        if (this.visitorFloors.putIfAbsent(visitor, 1) != null) {
+            throw new RuntimeException(visitor + " is already inside this Building.");
+        }
+        this.floorOccupancy.incrementAndGet(0);
+        log(() -> visitor + " is now inside " + this.name + " on the ground floor.");
+        return this;
+    }
+
     public Building exit() {
-        if (this.activeFloor == -1) {
+        int floor = this.activeFloor.get();
+        if (floor == -1) {
             throw new RuntimeException("You are not inside this Building. Must call enter() before exit().");
         }
-        if (this.activeFloor > 1) {
-            throw new RuntimeException("You have fallen out a window from floor #" +this.activeFloor + "!");
+        if (floor > 1) {
+            throw new RuntimeException("You have fallen out a window from floor #" + floor + "!");
+        }
+        if (!this.activeFloor.compareAndSet(1, -1)) { // We're leaving the building, so we no longer have a valid active floor
+            throw new RuntimeException("You moved while trying to leave " + this.name + ".");
         }
-        System.out.println("You have left " + this.name + ".");
-        this.activeFloor = -1; // We're leaving the building, so we no longer have a valid active floor
+        log(() -> "You have left " + this.name + ".");
+        this.floorOccupancy.decrementAndGet(0);
         return null; // We're outside now, so the building is null
     }
 
+    /* Overloaded exit() for a named visitor */
+    public Building exit(String visitor) {
+        Integer floor = this.visitorFloors.get(visitor);
+        if (floor == null) {
+            throw new RuntimeException(visitor + " is not inside this Building. Must call enter() before exit().");
+        }
+        if (floor > 1) {
+            throw new RuntimeException(visitor + " has fallen out a window from floor #" + floor + "!");
+        }
+        if (!this.visitorFloors.remove(visitor, floor)) {
+            throw new RuntimeException(visitor + " moved while trying to leave " + this.name + ".");
+        }
+        this.floorOccupancy.decrementAndGet(0);
+        log(() -> visitor + " has left " + this.name + ".");
+        return null;
+    }
+
     public void goToFloor(int floorNum) {
-        if (this.activeFloor == -1) {
+        int floor = this.activeFloor.get();
+        if (floor == -1) {
             throw new RuntimeException("You are not inside this Building. Must call enter() before navigating between floors.");
         }
-        if (floorNum < 1 || floorNum > this.nFloors) {
+        this.checkFloorChange(floor, floorNum);
+        if (!this.activeFloor.compareAndSet(floor, floorNum)) {
+            throw new RuntimeException("You moved while trying to go to floor #" + floorNum + ".");
+        }
+        log(() -> "You are now on floor #" + floorNum + " of " + this.name);
+        this.moveOccupant(floor, floorNum);
+    }
+
+    /* Overloaded goToFloor() for a named visitor */
+    public void goToFloor(String visitor, int floorNum) {
+        Integer floor = this.visitorFloors.get(visitor);
+        if (floor == null) {
+            throw new RuntimeException(visitor + " is not inside this Building. Must call enter() before navigating between floors.");
+        }
+        this.checkFloorChange(floor, floorNum);
+        if (!this.visitorFloors.replace(visitor, floor, floorNum)) {
+            throw new RuntimeException(visitor + " moved while trying to go to floor #" + floorNum + ".");
+        }
+        this.moveOccupant(floor, floorNum);
+        log(() -> visitor + " is now on floor #" + floorNum + " of " + this.name);
+    }
+
+    /* Checks that a move between two floors is allowed, throwing if it isn't; subclasses add their own rules */
+    protected void checkFloorChange(int fromFloor, int toFloor) {
+        if (toFloor < 1 || toFloor > this.nFloors) {
             throw new RuntimeException("Invalid floor number. Valid range for this Building is 1-" + this.nFloors +".");
         }
-        System.out.println("You are now on floor #" + floorNum + " of " + this.name);
-        this.activeFloor = floorNum;
+    }
+
+    /* Moves one person between floors in the occupancy counts */
+    private void moveOccupant(int fromFloor, int toFloor) {
+        this.floorOccupancy.decrementAndGet(fromFloor - 1);
+        this.floorOccupancy.incrementAndGet(toFloor - 1);
+    }
+
+    /* Rides the elevator, stopping at each requested floor; stops are made in the order the car's DispatchPolicy picks, LOOK by default.
+       Riders share the car, so other riders' stops may come in between; we only get off at our own. */
+    public void takeElevator(int... floorNums) {
+        int floor = this.activeFloor.get();
+        if (floor == -1) {
+            throw new RuntimeException("You are not inside this Building. Must call enter() before taking the elevator.");
+        }
+        for (int stop : this.rideElevator(floor, floorNums)) {
+            if (stop != this.activeFloor.get()) {
+                this.goToFloor(stop);
+            }
+        }
+    }
+
+    /* Overloaded takeElevator() for a named visitor */
+    public void takeElevator(String visitor, int... floorNums) {
+        Integer floor = this.visitorFloors.get(visitor);
+        if (floor == null) {
+            throw new RuntimeException(visitor + " is not inside this Building. Must call enter() before taking the elevator.");
+        }
+        for (int stop : this.rideElevator(floor, floorNums)) {
+            if (stop != this.visitorFloors.get(visitor)) {
+                this.goToFloor(visitor, stop);
+            }
+        }
+    }
+
+    /* Calls the elevator to a floor and rides it to the given floors, returning them in the order the car reached them */
+    private ArrayList<Integer> rideElevator(int floor, int[] floorNums) {
+        if (!this.hasElevator) {
+            throw new RuntimeException(this.name + " does not have an elevator.");
+        }
+        for (int floorNum : floorNums) {
+            this.checkFloorChange(floor, floorNum);
+        }
+        return this.getElevator().ride(floor, floorNums);
+    }
+
+    /* Returns this building's elevator, creating it on first use, e.g. to change its dispatch policy or read its statistics.
+       Synchronized so concurrent riders all share one car; subclasses set hasElevator after Building's constructor has run, so the car cannot be built there. */
+    public synchronized Elevator getElevator() {
+        if (!this.hasElevator) {
+            throw new RuntimeException(this.name + " does not have an elevator.");
+        }
+        if (this.elevator == null) {
+            this.elevator = new Elevator();
+        }
+        return this.elevator;
     }
 
     public void goUp() {
-        this.goToFloor(this.activeFloor + 1);
+        this.goToFloor(this.activeFloor.get() + 1);
     }
 
     public void goDown() {
-        this.goToFloor(this.activeFloor - 1);
+        this.goToFloor(this.activeFloor.get() - 1);
+    }
+
+    /* Starts a visit: a visitor session on the ground floor, for callers that need many visitors inside at once.
+       The visit's floor is kept in a primitive slab indexed by its id, not in an object or a map entry per visitor. */
+    public Visit startVisit() {
+        int id = this.allocateVisitId();
+        this.visitFloor(id).set(id % VISIT_CHUNK, 1);
+        this.floorOccupancy.incrementAndGet(0);
+        log(() -> "A visitor is now inside " + this.name + " on the ground floor.");
+        return new Visit(this, id);
+    }
+
+    /* Returns the chunk of the visit slab holding the given id */
+    private AtomicIntegerArray visitFloor(int id) {
+        return this.visitFloors[id / VISIT_CHUNK];
+    }
+
+    /* Hands out the id of a new visit, reusing ended visits' ids first and growing the slab a chunk at a time */
+    private synchronized int allocateVisitId() {
+        if (this.nFreeVisitIds > 0) {
+            return this.freeVisitIds[--this.nFreeVisitIds];
+        }
+        int id = this.nextVisitId++;
+        if (id / VISIT_CHUNK == this.visitFloors.length) {
+            AtomicIntegerArray[] grown = Arrays.copyOf(this.visitFloors, this.visitFloors.length + 1);
+            grown[grown.length - 1] = new AtomicIntegerArray(VISIT_CHUNK);
+            this.visitFloors = grown;
+        }
+        return id;
+    }
+
+    /* Takes back the id of a visit that has ended */
+    private synchronized void releaseVisitId(int id) {
+        if (this.nFreeVisitIds == this.freeVisitIds.length) {
+            this.freeVisitIds = Arrays.copyOf(this.freeVisitIds, this.freeVisitIds.length * 2);
+        }
+        this.freeVisitIds[this.nFreeVisitIds++] = id;
+    }
+
+    /* One visitor's stay in a building, returned by startVisit(); only the building and an id, the floor lives in the building */
+    public static final class Visit {
+
+        private final Building building;
+        private final int id;
+
+        private Visit(Building building, int id) {
+            this.building = building;
+            this.id = id;
+        }
+
+        public Building getBuilding() {
+            return this.building;
+        }
+
+        /* Returns the floor the visitor is on, or -1 once the visit has ended */
+        public int getFloor() {
+            int floor = this.building.visitFloor(this.id).get(this.id % VISIT_CHUNK);
+            return (floor == 0) ? -1 : floor;
+        }
+
+        public void goToFloor(int floorNum) {
+            AtomicIntegerArray floors = this.building.visitFloor(this.id);
+            int floor = floors.get(this.id % VISIT_CHUNK);
+            if (floor == 0) {
+                throw new RuntimeException("This visit to " + this.building.name + " has already ended.");
+            }
+            this.building.checkFloorChange(floor, floorNum);
+            if (!floors.compareAndSet(this.id % VISIT_CHUNK, floor, floorNum)) {
+                throw new RuntimeException("The visitor moved while trying to go to floor #" + floorNum + ".");
+            }
+            this.building.moveOccupant(floor, floorNum);
+            log(() -> "A visitor is now on floor #" + floorNum + " of " + this.building.name);
+        }
+
+        /* Rides the building's elevator, sharing the car with other riders; see Building.takeElevator() */
+        public void takeElevator(int... floorNums) {
+            int floor = this.getFloor();
+            if (floor == -1) {
+                throw new RuntimeException("This visit to " + this.building.name + " has already ended.");
+            }
+            for (int stop : this.building.rideElevator(floor, floorNums)) {
+                if (stop != this.getFloor()) {
+                    this.goToFloor(stop);
+                }
+            }
+        }
+
+        /* Ends the visit; the visitor must be back on the ground floor */
+        public void exit() {
+            AtomicIntegerArray floors = this.building.visitFloor(this.id);
+            int floor = floors.get(this.id % VISIT_CHUNK);
+            if (floor == 0) {
+                throw new RuntimeException("This visit to " + this.building.name + " has already ended.");
+            }
+            if (floor > 1) {
+                throw new RuntimeException("The visitor has fallen out a window from floor #" + floor + "!");
+            }
+            if (!floors.compareAndSet(this.id % VISIT_CHUNK, 1, 0)) {
+                throw new RuntimeException("The visitor moved while trying to leave " + this.building.name + ".");
+            }
+            this.building.floorOccupancy.decrementAndGet(0);
+            this.building.releaseVisitId(this.id);
+            log(() -> "A visitor has left " + this.building.name + ".");
+        }
     }
 
     public void showOptions() {
@@ -109,6 +420,47 @@ public class Building {
         fordHall.goUp();
         fordHall.goDown();
         fordHall.exit();
+
+        fordHall.enter("Jordan");
+        fordHall.enter("Taylor");
+        fordHall.goToFloor("Taylor", 3);
+        System.out.println("People on floor #1: " + fordHall.getOccupancy(1) + ", floor #3: " + fordHall.getOccupancy(3));
+        fordHall.goToFloor("Taylor", 1);
+        fordHall.exit("Taylor");
+        fordHall.exit("Jordan");
+
+        // Many anonymous visitors at once, each with its own visit; every floor must be empty again afterwards
+        Building.setEventLog(null);
+        Thread[] crowds = new Thread[8];
+        for (int i = 0; i < crowds.length; i++) {
+            crowds[i] = new Thread(() -> {
+                ArrayList<Visit> visits = new ArrayList<Visit>();
+                for (int j = 0; j < 5000; j++) {
+                    Visit visit = fordHall.startVisit();
+                    visit.goToFloor(1 + j % fordHall.getFloors());
+                    visits.add(visit);
+                }
+                for (Visit visit : visits) {
+                    visit.goToFloor(1);
+                    visit.exit();
+                }
+            });
+            crowds[i].start();
+        }
+        try {
+            for (Thread crowd : crowds) {
+                crowd.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Stress test was interrupted", e);
+        }
+        Building.setEventLog(System.out);
+        for (int floor = 1; floor <= fordHall.getFloors(); floor++) {
+            if (fordHall.getOccupancy(floor) != 0) {
+                throw new RuntimeException("Stress test failed: " + fordHall.getOccupancy(floor) + " people left on floor #" + floor + ".");
+            }
+        }
+        System.out.println("Stress test passed: 40000 visits from 8 threads, and every floor of Ford Hall is empty again.");
     }
 
 }
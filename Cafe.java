@@ -1,3 +1,22 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * The Cafe class represents a cafe that sells coffee to customers
  * The Cafe class extends the Building class and adds the functionality of a cafe
@@ -5,21 +24,69 @@
 
 public class Cafe extends Building {
 
-    private boolean hasElevator;
+    /**
+     * The cafe's current inventory of coffee, sugar packets, cream containers and cups.
+     * Sales and restocks never change an Inventory; they swap in a new one with compareAndSet(),
+     * so every order takes all of its ingredients at once without a lock.
+     */
+    private final AtomicReference<Inventory> inventory;
+
+    /** The stock levels a restock tops the inventory back up to: the starting inventory unless setParLevels() changes them */
+    private volatile Inventory par;
+
+    /** The number of times the inventory has been restocked by a sale that found it short, or by hand */
+    private final LongAdder nRestocks = new LongAdder();
+
+    /** The number of times the background restocker has topped the inventory up ahead of demand */
+    private final LongAdder nRestockBatches = new LongAdder();
+
+    /** The background restocker, or null if it is not running (see startRestocking()) */
+    private Restocker restocker;
+
+    /** The number of coffees sold of each size, in ounces */
+    private final ConcurrentHashMap<Integer, LongAdder> salesBySize = new ConcurrentHashMap<Integer, LongAdder>();
+
+    /** The number of coffee ounces used in coffees sold */
+    private final LongAdder nCoffeeOuncesUsed = new LongAdder();
+
+    /** The number of sugar packets used in coffees sold */
+    private final LongAdder nSugarPacketsUsed = new LongAdder();
+
+    /** The number of cream containers used in coffees sold */
+    private final LongAdder nCreamsUsed = new LongAdder();
+
+    /** The number of cups used in coffees sold */
+    private final LongAdder nCupsUsed = new LongAdder();
+
+    /** The number of sales attempted while the cafe was closed (see sellCoffeeAt()) */
+    private final LongAdder nClosedSaleAttempts = new LongAdder();
+
+    /** Sale latencies, bucketed by powers of two: bucket i counts sales that took under 2^i nanoseconds and at least 2^(i-1) */
+    private final LongAdder[] saleLatencies = new LongAdder[64];
+
+    /** The total time taken by every sale counted in saleLatencies, in nanoseconds */
+    private final LongAdder saleLatencyTotal = new LongAdder();
 
-    private int activeFloor;
+    /** One sale in this many is timed for the latency histogram */
+    private static final int LATENCY_SAMPLING = 64;
 
-    /** The number of coffee ounces in the cafe's inventory */
-    private int nCoffeeOunces;
+    /** What startTimer() returns for a sale it did not pick */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
 
-    /** The number of sugar packets in the cafe's inventory */
-    private int nSugarPackets;
+    /** Orders waiting for the order pipeline's drain stage, or null if the pipeline is not open (see openPipeline()) */
+    private volatile ArrayBlockingQueue<Order> orders;
 
-    /** The number of cream containers in the cafe's inventory */
-    private int nCreams;
+    /** The number of callers that are between reading orders and queueing their order, so closePipeline() can wait for them */
+    private final AtomicInteger nPlacing = new AtomicInteger();
 
-    /** The number of cups in the cafe's inventory */
-    private int nCups;
+    /** The thread running the pipeline's drain stage, or null if the pipeline is not open */
+    private Thread drainer;
+
+    /** The number of the next receipt the pipeline hands out */
+    private final AtomicLong nextReceipt = new AtomicLong(1);
+
+    /** The most orders the drain stage serves in one batch */
+    private static final int MAX_BATCH = 256;
 
     /** The opening time of the cafe in 24-hour format. */
     private int openingTime;
@@ -30,6 +97,7 @@ public class Cafe extends Building {
 
     /**
      * Creates a new Cafe with the given name, address, number of floors, and inventory levels
+     * The cafe is open from 8 to 22
      *
      * @param name the name of the cafe
      * @param address the address of the cafe
@@ -42,13 +110,7 @@ public class Cafe extends Building {
      */
 
     public Cafe(String name, String address, int nFloors, int nCoffeeOunces, int nSugarPackets, int nCreams, int nCups, boolean hasElevator) {
-        super(name, address, nFloors);
-        this.nCoffeeOunces = nCoffeeOunces;
-        this.nSugarPackets = nSugarPackets;
-        this.nCreams = nCreams;
-        this.nCups = nCups;
-        this.hasElevator = hasElevator;
-        this.activeFloor = 1;
+        this(name, address, nFloors, nCoffeeOunces, nSugarPackets, nCreams, nCups, hasElevator, 8, 22); // Default hours: 8am to 10pm
     }
 
     /**
@@ -68,16 +130,40 @@ public class Cafe extends Building {
 
     public Cafe(String name, String address, int nFloors, int nCoffeeOunces, int nSugarPackets, int nCreams, int nCups, boolean hasElevator, int openingTime, int closingTime) {
         super(name, address, nFloors);
-        this.nCoffeeOunces = nCoffeeOunces;
-        this.nSugarPackets = nSugarPackets;
-        this.nCreams = nCreams;
-        this.nCups = nCups;
+        this.inventory = new AtomicReference<Inventory>(new Inventory(nCoffeeOunces, nSugarPackets, nCreams, nCups));
+        this.par = this.inventory.get();
+        for (int i = 0; i < this.saleLatencies.length; i++) {
+            this.saleLatencies[i] = new LongAdder();
+        }
         this.hasElevator = hasElevator;
-        this.activeFloor = 1;
-        this.openingTime = 8;
-        this.closingTime = 22;
+        this.openingTime = openingTime;
+        this.closingTime = closingTime;
     }
 
+    /**
+     * Sets the stock levels that restocks top the inventory back up to, instead of the starting inventory
+     *
+     * @param nCoffeeOunces the number of coffee ounces to keep in stock
+     * @param nSugarPackets the number of sugar packets to keep in stock
+     * @param nCreams the number of cream containers to keep in stock
+     * @param nCups the number of cups to keep in stock
+     * @throws RuntimeException if any level is negative
+     */
+
+    public void setParLevels(int nCoffeeOunces, int nSugarPackets, int nCreams, int nCups) {
+        if (nCoffeeOunces < 0 || nSugarPackets < 0 || nCreams < 0 || nCups < 0) {
+            throw new RuntimeException("Par levels cannot be negative.");
+        }
+        this.par = new Inventory(nCoffeeOunces, nSugarPackets, nCreams, nCups);
+    }
+
+    /**
+     * Checks whether the cafe is open at the given hour
+     *
+     * @param hour the hour of the day in 24-hour format
+     * @return true if the cafe is open, false otherwise
+     */
+
     public boolean isOpen(int hour) {
         return hour >= openingTime && hour < closingTime;
     }
@@ -85,28 +171,43 @@ public class Cafe extends Building {
     /**
      * Sells a coffee of a given size with the specified number of sugar packets and cream containers to a customer
      * Restocks inventory if needed
+     * The check, restock and deduction are one atomic swap of the inventory, so concurrent orders never drive it negative
      *
      * @param size the size of the coffee in ounces
      * @param nSugarPackets the number of sugar packets to add to the coffee
      * @param nCreams the number of cream containers to add to the coffee
+     * @throws RuntimeException if the size, sugar packets or cream containers are negative
      */
 
     public void sellCoffee(int size, int nSugarPackets, int nCreams) {
-        int coffeeNeeded = size;
-        int sugarNeeded = nSugarPackets;
-        int creamNeeded = nCreams;
-        int cupsNeeded = 1;
+        long start = startTimer();
+        checkOrder(size, nSugarPackets, nCreams);
+        useIngredients(size, nSugarPackets, nCreams, 1);
+        recordSale(1, size, nSugarPackets, nCreams);
 
-        if (this.nCoffeeOunces < coffeeNeeded || this.nSugarPackets < sugarNeeded || this.nCreams < creamNeeded || this.nCups < cupsNeeded) {
-            restock(coffeeNeeded, sugarNeeded, creamNeeded, cupsNeeded);
-        }
+        log("Here's your coffee! Enjoy.");
+        stopTimer(start);
+    }
 
-        this.nCoffeeOunces -= coffeeNeeded;
-        this.nSugarPackets -= sugarNeeded;
-        this.nCreams -= creamNeeded;
-        this.nCups -= cupsNeeded;
+    /**
+     * Sells a coffee at the given hour of the day, if the cafe is open then
+     * Attempts while the cafe is closed are counted in the cafe's metrics
+     *
+     * @param hour the hour of the day in 24-hour format
+     * @param size the size of the coffee in ounces
+     * @param nSugarPackets the number of sugar packets to add to the coffee
+     * @param nCreams the number of cream containers to add to the coffee
+     * @return true if the coffee was sold, false if the cafe is closed
+     */
 
-        System.out.println("Here's your coffee! Enjoy.");
+    public boolean sellCoffeeAt(int hour, int size, int nSugarPackets, int nCreams) {
+        if (!isOpen(hour)) {
+            this.nClosedSaleAttempts.increment();
+            log(() -> "Sorry, " + this.name + " is closed at " + hour + ":00.");
+            return false;
+        }
+        sellCoffee(size, nSugarPackets, nCreams);
+        return true;
     }
 
     /**
@@ -124,6 +225,282 @@ public class Cafe extends Building {
         sellCoffee(size, sugarNeeded, creamNeeded); // Call the original sellCoffee method with default values
     }
 
+    /**
+     * Sells a batch of identical coffees, e.g. a group order, as a single sale
+     * Inventory is checked, restocked and deducted once for the whole batch, and one message is printed
+     *
+     * @param nCoffees the number of coffees to sell
+     * @param size the size of each coffee in ounces
+     * @param nSugarPackets the number of sugar packets to add to each coffee
+     * @param nCreams the number of cream containers to add to each coffee
+     * @throws RuntimeException if the number of coffees is not positive, any amount is negative,
+     *                           or the batch needs more of an ingredient than an int can count
+     */
+
+    public void sellCoffees(int nCoffees, int size, int nSugarPackets, int nCreams) {
+        if (nCoffees < 1) {
+            throw new RuntimeException("Cannot sell fewer than 1 coffee.");
+        }
+        long start = startTimer();
+        checkOrder(size, nSugarPackets, nCreams);
+        try {
+            useIngredients(Math.multiplyExact(nCoffees, size), Math.multiplyExact(nCoffees, nSugarPackets),
+                           Math.multiplyExact(nCoffees, nCreams), nCoffees);
+        } catch (ArithmeticException e) {
+            throw new RuntimeException("Cannot sell " + nCoffees + " coffees at once: the order is too large.", e);
+        }
+        recordSale(nCoffees, size, nSugarPackets, nCreams);
+
+        log(() -> "Here are your " + nCoffees + " coffees! Enjoy.");
+        stopTimer(start);
+    }
+
+    /**
+     * Checks that an order asks for no negative amounts, which would otherwise add stock instead of using it
+     *
+     * @param size the size of the coffee in ounces
+     * @param nSugarPackets the number of sugar packets in the coffee
+     * @param nCreams the number of cream containers in the coffee
+     * @throws RuntimeException if any amount is negative
+     */
+
+    private static void checkOrder(int size, int nSugarPackets, int nCreams) {
+        if (size < 0 || nSugarPackets < 0 || nCreams < 0) {
+            throw new RuntimeException("Cannot sell a coffee with a negative size, sugar packets or creams.");
+        }
+    }
+
+    /**
+     * Opens the order pipeline: orders placed with placeOrder() wait on a queue of the given capacity,
+     * and a drain stage serves them in batches, checking and deducting the inventory once per batch
+     * and printing one message per batch instead of one per coffee
+     *
+     * @param capacity the most orders that may wait at once before placeOrder() makes callers wait
+     * @throws RuntimeException if the pipeline is already open or the capacity is not positive
+     */
+
+    public synchronized void openPipeline(int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("The order queue must hold at least 1 order.");
+        }
+        if (this.orders != null) {
+            throw new RuntimeException("The order pipeline of " + this.name + " is already open.");
+        }
+        ArrayBlockingQueue<Order> queue = new ArrayBlockingQueue<Order>(capacity);
+        this.drainer = new Thread(() -> drainOrders(queue), this.name + " order pipeline");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+        this.orders = queue;
+    }
+
+    /**
+     * Places an order on the order pipeline and returns a receipt that completes once the coffee has been sold
+     * If the queue is full the caller waits for room, so clients can never run ahead of the drain stage (backpressure)
+     *
+     * @param size the size of the coffee in ounces
+     * @param nSugarPackets the number of sugar packets to add to the coffee
+     * @param nCreams the number of cream containers to add to the coffee
+     * @return a future that completes with the order's receipt number once it is served, or fails if it cannot be
+     * @throws RuntimeException if any amount is negative
+     */
+
+    public CompletableFuture<Long> placeOrder(int size, int nSugarPackets, int nCreams) {
+        checkOrder(size, nSugarPackets, nCreams);
+        Order order = new Order(size, nSugarPackets, nCreams);
+        this.nPlacing.incrementAndGet();
+        try {
+            ArrayBlockingQueue<Order> queue = this.orders;
+            if (queue == null) {
+                order.receipt.completeExceptionally(new RuntimeException("The order pipeline of " + this.name + " is not open."));
+            } else {
+                queue.put(order);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            order.receipt.completeExceptionally(e);
+        } finally {
+            this.nPlacing.decrementAndGet();
+        }
+        return order.receipt;
+    }
+
+    /**
+     * Returns the number of orders waiting on the order pipeline, 0 if it is not open
+     *
+     * @return the number of orders waiting
+     */
+
+    public int pendingOrders() {
+        ArrayBlockingQueue<Order> queue = this.orders;
+        return (queue == null) ? 0 : queue.size();
+    }
+
+    /**
+     * Closes the order pipeline once every order already placed has been served
+     * Orders placed from now on fail right away
+     *
+     * @throws RuntimeException if the caller is interrupted while waiting
+     */
+
+    public synchronized void closePipeline() {
+        ArrayBlockingQueue<Order> queue = this.orders;
+        if (queue == null) {
+            return;
+        }
+        this.orders = null;
+        try {
+            queue.put(Order.CLOSE);
+            this.drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while closing the order pipeline", e);
+        }
+        this.drainer = null;
+    }
+
+    /**
+     * The pipeline's drain stage: takes whatever orders are waiting, up to MAX_BATCH at a time, and serves them as one batch
+     * Stops after the close marker once no caller can still be queueing an order
+     *
+     * @param queue the queue to take orders from
+     */
+
+    private void drainOrders(ArrayBlockingQueue<Order> queue) {
+        ArrayList<Order> batch = new ArrayList<Order>(MAX_BATCH);
+        boolean closing = false;
+        try {
+            while (!closing || this.nPlacing.get() > 0 || !queue.isEmpty()) {
+                Order first = closing ? queue.poll() : queue.take();
+                if (first == null) {
+                    Thread.yield(); // a caller is still queueing its order
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                closing |= batch.remove(Order.CLOSE);
+                serveBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            for (Order order : queue) {
+                order.receipt.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Sells a batch of orders with one inventory check and deduction, then completes their receipts
+     *
+     * @param batch the orders to serve
+     */
+
+    private void serveBatch(ArrayList<Order> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            int coffeeNeeded = 0;
+            int sugarNeeded = 0;
+            int creamNeeded = 0;
+            for (Order order : batch) {
+                coffeeNeeded = Math.addExact(coffeeNeeded, order.size);
+                sugarNeeded = Math.addExact(sugarNeeded, order.nSugarPackets);
+                creamNeeded = Math.addExact(creamNeeded, order.nCreams);
+            }
+            useIngredients(coffeeNeeded, sugarNeeded, creamNeeded, batch.size());
+        } catch (RuntimeException e) {
+            for (Order order : batch) {
+                order.receipt.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Order order : batch) {
+            recordSale(1, order.size, order.nSugarPackets, order.nCreams);
+        }
+        log(() -> "Served a batch of " + batch.size() + " coffees.");
+        for (Order order : batch) {
+            stopTimer(order.placedAt); // from placeOrder() to the receipt, including the wait in the queue
+            order.receipt.complete(this.nextReceipt.getAndIncrement());
+        }
+    }
+
+    /**
+     * Takes the given ingredients out of the inventory, restocking first if any of them are short
+     * A restock tops every ingredient back up to its starting level (or to what this order needs, if that is more),
+     * so the sales that follow do not each have to restock again
+     * If another order changes the inventory first, the new inventory is checked again, so no lock is ever held
+     *
+     * @param coffeeNeeded the number of coffee ounces needed
+     * @param sugarNeeded the number of sugar packets needed
+     * @param creamNeeded the number of cream containers needed
+     * @param cupsNeeded the number of cups needed
+     */
+
+    private void useIngredients(int coffeeNeeded, int sugarNeeded, int creamNeeded, int cupsNeeded) {
+        while (true) {
+            Inventory current = this.inventory.get();
+            Inventory next = current;
+            boolean mustRestock = current.coffeeOunces < coffeeNeeded || current.sugarPackets < sugarNeeded
+                || current.creams < creamNeeded || current.cups < cupsNeeded;
+            if (mustRestock) {
+                Inventory par = this.par;
+                next = current.toppedUpTo(Math.max(par.coffeeOunces, coffeeNeeded), Math.max(par.sugarPackets, sugarNeeded),
+                                          Math.max(par.creams, creamNeeded), Math.max(par.cups, cupsNeeded));
+            }
+            next = next.plus(-coffeeNeeded, -sugarNeeded, -creamNeeded, -cupsNeeded);
+            if (this.inventory.compareAndSet(current, next)) {
+                if (mustRestock) {
+                    this.nRestocks.increment();
+                    log("Restocking inventory...");
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds a sale to the cafe's sales counters
+     *
+     * @param nCoffees the number of coffees sold
+     * @param size the size of each coffee in ounces
+     * @param nSugarPackets the number of sugar packets in each coffee
+     * @param nCreams the number of cream containers in each coffee
+     */
+
+    private void recordSale(int nCoffees, int size, int nSugarPackets, int nCreams) {
+        this.salesBySize.computeIfAbsent(size, key -> new LongAdder()).add(nCoffees);
+        this.nCoffeeOuncesUsed.add((long) nCoffees * size);
+        this.nCupsUsed.add(nCoffees);
+        this.nSugarPacketsUsed.add((long) nCoffees * nSugarPackets);
+        this.nCreamsUsed.add((long) nCoffees * nCreams);
+    }
+
+    /**
+     * Starts timing a sale, if it is one of the sales picked for the latency histogram
+     * Only one sale in LATENCY_SAMPLING is timed, since reading the clock costs about as much as the rest of the sale
+     *
+     * @return the time the sale started, in nanoseconds, or NOT_TIMED if the sale is not being timed
+     */
+
+    private static long startTimer() {
+        return (ThreadLocalRandom.current().nextInt(LATENCY_SAMPLING) == 0) ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Adds the time a sale took to the latency histogram, if startTimer() picked it
+     *
+     * @param start what startTimer() returned when the sale started
+     */
+
+    private void stopTimer(long start) {
+        if (start == NOT_TIMED) {
+            return;
+        }
+        long nanos = Math.max(System.nanoTime() - start, 0);
+        this.saleLatencies[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        this.saleLatencyTotal.add(nanos);
+    }
+
     /**
      * Restocks the cafe's inventory with the given amounts of coffee, sugar packets, cream containers, and cups
      *
@@ -134,11 +511,52 @@ public class Cafe extends Building {
      */
 
     private void restock(int nCoffeeOunces, int nSugarPackets, int nCreams, int nCups) {
-        System.out.println("Restocking inventory...");
-        this.nCoffeeOunces += nCoffeeOunces;
-        this.nSugarPackets += nSugarPackets;
-        this.nCreams += nCreams;
-        this.nCups += nCups;
+        log("Restocking inventory...");
+        Inventory current;
+        do {
+            current = this.inventory.get();
+        } while (!this.inventory.compareAndSet(current, current.plus(nCoffeeOunces, nSugarPackets, nCreams, nCups)));
+        this.nRestocks.increment();
+    }
+
+    /**
+     * Starts topping the inventory up in the background, so that sales rarely find an ingredient short and have to restock themselves
+     * Every period the restocker updates a moving average (EWMA) of how much of each ingredient is used per period;
+     * once any ingredient falls below two periods' worth (or half its par level), it tops every ingredient up to
+     * four periods' worth (or its par level, if that is more) with one swap of the inventory
+     *
+     * @param periodMillis how often the restocker checks the inventory, in milliseconds
+     * @throws RuntimeException if the period is not positive
+     */
+
+    public synchronized void startRestocking(long periodMillis) {
+        if (periodMillis < 1) {
+            throw new RuntimeException("The restocking period must be at least 1 millisecond.");
+        }
+        stopRestocking();
+        this.restocker = new Restocker();
+        this.restocker.executor.scheduleAtFixedRate(this.restocker, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background restocker, if it is running
+     */
+
+    public synchronized void stopRestocking() {
+        if (this.restocker != null) {
+            this.restocker.executor.shutdownNow();
+            this.restocker = null;
+        }
+    }
+
+    /**
+     * Returns the number of times the background restocker has topped the inventory up.
+     *
+     * @return the number of background restocks so far
+     */
+
+    public int getRestockBatchCount() {
+        return this.nRestockBatches.intValue();
     }
 
     /**
@@ -148,7 +566,7 @@ public class Cafe extends Building {
      */
 
     public int getCoffeeOunces() {
-        return this.nCoffeeOunces;
+        return this.inventory.get().coffeeOunces;
     }
 
     /**
@@ -158,7 +576,7 @@ public class Cafe extends Building {
      */
 
     public int getSugarPackets() {
-        return this.nSugarPackets;
+        return this.inventory.get().sugarPackets;
     }
 
     /**
@@ -168,7 +586,7 @@ public class Cafe extends Building {
      */
 
     public int getCreams() {
-        return this.nCreams;
+        return this.inventory.get().creams;
     }
 
     /**
@@ -178,7 +596,17 @@ public class Cafe extends Building {
      */
 
     public int getCups() {
-        return this.nCups;
+        return this.inventory.get().cups;
+    }
+
+    /**
+     * Returns the number of times the inventory has been restocked.
+     *
+     * @return the number of restocks so far
+     */
+
+    public int getRestockCount() {
+        return this.nRestocks.intValue();
     }
 
     /**
@@ -186,37 +614,217 @@ public class Cafe extends Building {
      */
 
     public void printInventory() {
-        System.out.println("Coffee Ounces: " + this.nCoffeeOunces);
-        System.out.println("Sugar Packets: " + this.nSugarPackets);
-        System.out.println("Creams: " + this.nCreams);
-        System.out.println("Cups: " + this.nCups);
+        Inventory current = this.inventory.get();
+        System.out.println("Coffee Ounces: " + current.coffeeOunces);
+        System.out.println("Sugar Packets: " + current.sugarPackets);
+        System.out.println("Creams: " + current.creams);
+        System.out.println("Cups: " + current.cups);
     }
 
     /**
-     * Moves the customer to the specified floor of the Cafe.
+     * Returns how many more coffees of the given kind the cafe can sell before it has to restock.
+     *
+     * @param size the size of the coffee in ounces
+     * @param nSugarPackets the number of sugar packets in the coffee
+     * @param nCreams the number of cream containers in the coffee
+     * @return the number of coffees the current inventory covers
+     */
+
+    public int servingsLeft(int size, int nSugarPackets, int nCreams) {
+        Inventory current = this.inventory.get();
+        int servings = current.cups;
+        if (size > 0) {
+            servings = Math.min(servings, current.coffeeOunces / size);
+        }
+        if (nSugarPackets > 0) {
+            servings = Math.min(servings, current.sugarPackets / nSugarPackets);
+        }
+        if (nCreams > 0) {
+            servings = Math.min(servings, current.creams / nCreams);
+        }
+        return Math.max(servings, 0);
+    }
+
+    /**
+     * Takes a snapshot of the cafe's sales counters, current inventory and sale latencies
+     * Each counter is read without stopping sales, so a snapshot taken during a rush may count a sale in one counter and not yet in another
+     *
+     * @return the snapshot
+     */
+
+    public CafeMetrics getMetrics() {
+        TreeMap<Integer, Long> coffeesBySize = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, LongAdder> entry : this.salesBySize.entrySet()) {
+            coffeesBySize.put(entry.getKey(), entry.getValue().sum());
+        }
+        long[] latencies = new long[this.saleLatencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = this.saleLatencies[i].sum();
+        }
+        Inventory current = this.inventory.get();
+        return new CafeMetrics(this.name, coffeesBySize, this.nSugarPacketsUsed.sum(), this.nCreamsUsed.sum(), this.nRestocks.sum(),
+                               this.nRestockBatches.sum(), this.nClosedSaleAttempts.sum(), current.coffeeOunces, current.sugarPackets,
+                               current.creams, current.cups, latencies, this.saleLatencyTotal.sum());
+    }
+
+    /**
+     * Prints the cafe's sales counters: coffees sold by size, sugar and cream used, restocks and sale latency
+     */
+
+    public void printMetrics() {
+        System.out.println(getMetrics());
+    }
+
+    /**
+     * Writes a snapshot of the cafe's metrics (see getMetrics()) to a file in the Prometheus text format
+     *
+     * @param filename the file to write to
+     * @throws RuntimeException if the file cannot be written
+     */
+
+    public void writeMetrics(String filename) {
+        CafeMetrics metrics = getMetrics();
+        try (Writer out = Files.newBufferedWriter(Paths.get(filename))) {
+            metrics.writePrometheus(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write metrics to " + filename, e);
+        }
+    }
+
+    /**
+     * Tops the inventory up in the background, ahead of demand (see startRestocking())
+     * Only its own thread touches the usage averages, so they need no lock.
+     */
+
+    private final class Restocker implements Runnable {
+
+        /** How strongly the latest period counts in the usage averages */
+        private static final double ALPHA = 0.3;
+
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, Cafe.this.name + " restocker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        /** Average use per period of coffee ounces, sugar packets, creams and cups */
+        private final double[] rates = new double[4];
+
+        /** Total use of each ingredient when the last period ended */
+        private final long[] lastUsed = new long[4];
+
+        @Override
+        public void run() {
+            long[] used = { nCoffeeOuncesUsed.sum(), nSugarPacketsUsed.sum(), nCreamsUsed.sum(), nCupsUsed.sum() };
+            for (int i = 0; i < used.length; i++) {
+                this.rates[i] = ALPHA * (used[i] - this.lastUsed[i]) + (1 - ALPHA) * this.rates[i];
+                this.lastUsed[i] = used[i];
+            }
+            Inventory par = Cafe.this.par;
+            Inventory current = inventory.get();
+            if (current.coffeeOunces >= reorderLevel(0, par.coffeeOunces) && current.sugarPackets >= reorderLevel(1, par.sugarPackets)
+                    && current.creams >= reorderLevel(2, par.creams) && current.cups >= reorderLevel(3, par.cups)) {
+                return;
+            }
+            Inventory next;
+            do {
+                current = inventory.get();
+                next = current.toppedUpTo(targetLevel(0, par.coffeeOunces), targetLevel(1, par.sugarPackets),
+                                          targetLevel(2, par.creams), targetLevel(3, par.cups));
+            } while (next != current && !inventory.compareAndSet(current, next));
+            if (next != current) {
+                nRestockBatches.increment();
+                log(() -> "Restocked " + Cafe.this.name + " ahead of demand.");
+            }
+        }
+
+        /** The stock of an ingredient below which the restocker tops up: two periods of use, or half its par level */
+        private int reorderLevel(int ingredient, int parLevel) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(parLevel / 2, Math.ceil(2 * this.rates[ingredient])));
+        }
+
+        /** The stock of an ingredient the restocker tops up to: four periods of use, or its par level */
+        private int targetLevel(int ingredient, int parLevel) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(parLevel, Math.ceil(4 * this.rates[ingredient])));
+        }
+    }
+
+    /**
+     * A coffee waiting on the order pipeline, and the receipt to complete once it is sold
+     */
+
+    private static final class Order {
+
+        /** Placed on the queue by closePipeline() to tell the drain stage to finish */
+        private static final Order CLOSE = new Order(0, 0, 0);
+
+        private final int size;
+        private final int nSugarPackets;
+        private final int nCreams;
+        private final CompletableFuture<Long> receipt = new CompletableFuture<Long>();
+        private final long placedAt = startTimer();
+
+        private Order(int size, int nSugarPackets, int nCreams) {
+            this.size = size;
+            this.nSugarPackets = nSugarPackets;
+            this.nCreams = nCreams;
+        }
+    }
+
+    /**
+     * The cafe's stock of every ingredient at one moment. An Inventory never changes; taking or adding stock makes a new one.
+     */
+
+    private static final class Inventory {
+
+        private final int coffeeOunces;
+        private final int sugarPackets;
+        private final int creams;
+        private final int cups;
+
+        private Inventory(int coffeeOunces, int sugarPackets, int creams, int cups) {
+            this.coffeeOunces = coffeeOunces;
+            this.sugarPackets = sugarPackets;
+            this.creams = creams;
+            this.cups = cups;
+        }
+
+        /** Returns this inventory with every ingredient below the given level raised to it, or this inventory if none is */
+        private Inventory toppedUpTo(int coffeeOunces, int sugarPackets, int creams, int cups) {
+            if (this.coffeeOunces >= coffeeOunces && this.sugarPackets >= sugarPackets && this.creams >= creams && this.cups >= cups) {
+                return this;
+            }
+            return new Inventory(Math.max(this.coffeeOunces, coffeeOunces), Math.max(this.sugarPackets, sugarPackets),
+                                 Math.max(this.creams, creams), Math.max(this.cups, cups));
+        }
+
+        /** Returns this inventory with the given amounts added, or taken away if they are negative */
+        private Inventory plus(int coffeeOunces, int sugarPackets, int creams, int cups) {
+            return new Inventory(this.coffeeOunces + coffeeOunces, this.sugarPackets + sugarPackets, this.creams + creams, this.cups + cups);
+        }
+    }
+
+    /**
+     * Checks that a move between floors of the Cafe is allowed.
      * 
-     * @param floorNum The floor number to navigate to
-     * @throws RuntimeException If the customer is not inside the Cafe, if the Cafe only has one floor, 
+     * @param fromFloor The floor the customer is on
+     * @param toFloor The floor number to navigate to
+     * @throws RuntimeException If the Cafe only has one floor, 
      *                           if the floor number is invalid, or if the Cafe does not have an elevator 
      *                           and the customer is trying to move to a non-adjacent floor.
      */
 
     @Override
-    public void goToFloor(int floorNum) {
-        if (this.activeFloor == -1) {
-            throw new RuntimeException("You are not inside this cafe. Must call enter() before navigating between floors.");
-        }
-        if (this.activeFloor != 1) {
+    protected void checkFloorChange(int fromFloor, int toFloor) {
+        if (fromFloor != 1) {
             throw new RuntimeException("You cannot move to another floor. This Cafe only has one floor.");
         }
-        if (floorNum < 1 || floorNum > 1) {
+        if (toFloor < 1 || toFloor > 1) {
             throw new RuntimeException("Invalid floor number. Valid range for this Cafe is 1-1.");
         }
-        if (floorNum != 1 && !hasElevator) {
+        if (toFloor != 1 && !hasElevator) {
             throw new RuntimeException("This cafe does not have an elevator. You cannot move between non-adjacent floors.");
         }
-        System.out.println("You are now on floor #" + floorNum + " of the Cafe.");
-        this.activeFloor = floorNum;
     }
 
     /**
@@ -251,6 +859,12 @@ public class Cafe extends Building {
         cafe.printInventory();
         System.out.println();
     
+        // Sell a group order of coffees in one batch
+        System.out.println("Selling 3 cups of coffee at once...");
+        cafe.sellCoffees(3, 8, 1, 1);
+        cafe.printInventory();
+        System.out.println();
+    
         // Try to sell a cup of coffee with insufficient ingredients
         System.out.println("Trying to sell a cup of coffee with insufficient ingredients...");
         cafe.sellCoffee(46, 3, 4);
@@ -260,12 +874,111 @@ public class Cafe extends Building {
         cafe.printInventory();
         System.out.println();
     
+        // Try to buy a coffee after closing time
+        cafe.sellCoffeeAt(23, 12, 1, 1);
+
+        // Print sales counters
+        System.out.println("Sales so far:");
+        cafe.printMetrics();
+        System.out.println();
+    
         // Restock ingredients and print updated inventory
         System.out.println("Restocking...");
         cafe.restock(50, 50, 50, 50);
         System.out.println("Inventory after restocking:");
         cafe.printInventory();
 
+        // Sell coffees from many threads at once; every ounce, packet, cream and cup must be accounted for
+        Cafe compass = new Cafe("Compass Cafe", "7 Neilson Drive Northampton MA", 1, 1000000, 100000, 100000, 100000, false);
+        Building.setEventLog(null);
+        Thread[] registers = new Thread[8];
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    compass.sellCoffee(8, 1, 1);
+                }
+            });
+            registers[i].start();
+        }
+        try {
+            for (Thread register : registers) {
+                register.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Stress test was interrupted", e);
+        }
+        Building.setEventLog(System.out);
+        if (compass.getCoffeeOunces() != 1000000 - 80000 * 8 || compass.getSugarPackets() != 100000 - 80000
+                || compass.getCreams() != 100000 - 80000 || compass.getCups() != 100000 - 80000 || compass.getRestockCount() != 0) {
+            throw new RuntimeException("Stress test failed: inventory does not add up after 80000 sales.");
+        }
+        System.out.println("Stress test passed: 80000 coffees sold from 8 registers and the inventory adds up.");
+
+        // Take the same orders through the order pipeline, which serves them in batches
+        Cafe compassPipeline = new Cafe("Compass Cafe", "7 Neilson Drive Northampton MA", 1, 1000000, 100000, 100000, 100000, false);
+        compassPipeline.openPipeline(1024);
+        Building.setEventLog(null);
+        ArrayList<CompletableFuture<Long>> receipts = new ArrayList<CompletableFuture<Long>>();
+        Thread[] clients = new Thread[8];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Thread(() -> {
+                ArrayList<CompletableFuture<Long>> mine = new ArrayList<CompletableFuture<Long>>();
+                for (int j = 0; j < 10000; j++) {
+                    mine.add(compassPipeline.placeOrder(8, 1, 1));
+                }
+                synchronized (receipts) {
+                    receipts.addAll(mine);
+                }
+            });
+            clients[i].start();
+        }
+        try {
+            for (Thread client : clients) {
+                client.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Stress test was interrupted", e);
+        }
+        compassPipeline.closePipeline();
+        Building.setEventLog(System.out);
+        long nServed = receipts.stream().map(CompletableFuture::join).distinct().count();
+        if (nServed != 80000 || compassPipeline.getCoffeeOunces() != 1000000 - 80000 * 8 || compassPipeline.getCups() != 100000 - 80000) {
+            throw new RuntimeException("Pipeline test failed: " + nServed + " receipts for 80000 orders.");
+        }
+        System.out.println("Pipeline test passed: 80000 orders from 8 clients got 80000 receipts and the inventory adds up.");
+
+        // Keep a small cafe stocked from the background while four registers sell steadily
+        Cafe kiosk = new Cafe("Kiosk", "1 Chapin Way Northampton MA", 1, 400, 50, 50, 50, false);
+        kiosk.setParLevels(800, 100, 100, 100);
+        kiosk.startRestocking(5);
+        Building.setEventLog(null);
+        Thread[] kioskRegisters = new Thread[4];
+        for (int i = 0; i < kioskRegisters.length; i++) {
+            kioskRegisters[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 500; j++) {
+                        kiosk.sellCoffee(8, 1, 1);
+                        Thread.sleep(1);
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Register was interrupted", e);
+                }
+            });
+            kioskRegisters[i].start();
+        }
+        try {
+            for (Thread register : kioskRegisters) {
+                register.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Restocking test was interrupted", e);
+        }
+        kiosk.stopRestocking();
+        Building.setEventLog(System.out);
+        System.out.println("Kiosk sold 2000 coffees: " + kiosk.getRestockBatchCount() + " restocks ahead of demand, "
+            + kiosk.getRestockCount() + " sales had to restock themselves.");
+
+        cafe.enter();
         cafe.goToFloor(1);
         cafe.goToFloor(2);
     }
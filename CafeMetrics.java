@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * The CafeMetrics class is a snapshot of a Cafe's sales counters, inventory and sale latencies at one moment
+ * A snapshot never changes, so it can be handed to another thread, compared with a later one, or exported at leisure
+ */
+
+public class CafeMetrics {
+
+    /** The name of the cafe */
+    private final String cafeName;
+
+    /** The number of coffees sold of each size, in ounces, from smallest to largest */
+    private final SortedMap<Integer, Long> coffeesBySize;
+
+    /** The number of sugar packets used in coffees sold */
+    private final long sugarPacketsUsed;
+
+    /** The number of cream containers used in coffees sold */
+    private final long creamsUsed;
+
+    /** The number of restocks made by sales that found an ingredient short, or by hand */
+    private final long restocks;
+
+    /** The number of restocks the background restocker made ahead of demand */
+    private final long restockBatches;
+
+    /** The number of sales attempted while the cafe was closed */
+    private final long closedSaleAttempts;
+
+    /** The inventory when the snapshot was taken */
+    private final int coffeeOunces;
+    private final int sugarPackets;
+    private final int creams;
+    private final int cups;
+
+    /**
+     * The number of timed sales whose latency fell in each bucket: bucket i counts latencies below 2^i nanoseconds and at least 2^(i-1).
+     * The Cafe times a random sample of its sales, so these are counts of the sample, not of every sale.
+     */
+    private final long[] latencyBuckets;
+
+    /** The total latency of every sale counted in latencyBuckets, in nanoseconds */
+    private final long latencyTotalNanos;
+
+    /**
+     * Creates a snapshot from counts the Cafe has already read; the arrays and map are not copied, so the Cafe must not keep them
+     */
+
+    CafeMetrics(String cafeName, SortedMap<Integer, Long> coffeesBySize, long sugarPacketsUsed, long creamsUsed, long restocks,
+                long restockBatches, long closedSaleAttempts, int coffeeOunces, int sugarPackets, int creams, int cups,
+                long[] latencyBuckets, long latencyTotalNanos) {
+        this.cafeName = cafeName;
+        this.coffeesBySize = Collections.unmodifiableSortedMap(coffeesBySize);
+        this.sugarPacketsUsed = sugarPacketsUsed;
+        this.creamsUsed = creamsUsed;
+        this.restocks = restocks;
+        this.restockBatches = restockBatches;
+        this.closedSaleAttempts = closedSaleAttempts;
+        this.coffeeOunces = coffeeOunces;
+        this.sugarPackets = sugarPackets;
+        this.creams = creams;
+        this.cups = cups;
+        this.latencyBuckets = latencyBuckets;
+        this.latencyTotalNanos = latencyTotalNanos;
+    }
+
+    /* Accessors */
+    public String getCafeName() {
+        return this.cafeName;
+    }
+
+    public SortedMap<Integer, Long> getCoffeesBySize() {
+        return this.coffeesBySize;
+    }
+
+    public long getSugarPacketsUsed() {
+        return this.sugarPacketsUsed;
+    }
+
+    public long getCreamsUsed() {
+        return this.creamsUsed;
+    }
+
+    public long getRestocks() {
+        return this.restocks;
+    }
+
+    public long getRestockBatches() {
+        return this.restockBatches;
+    }
+
+    public long getClosedSaleAttempts() {
+        return this.closedSaleAttempts;
+    }
+
+    public int getCoffeeOunces() {
+        return this.coffeeOunces;
+    }
+
+    public int getSugarPackets() {
+        return this.sugarPackets;
+    }
+
+    public int getCreams() {
+        return this.creams;
+    }
+
+    public int getCups() {
+        return this.cups;
+    }
+
+    /**
+     * Returns the number of sales whose latency was measured: a random sample of all the sales
+     *
+     * @return the number of timed sales
+     */
+
+    public long getTimedSales() {
+        long count = 0;
+        for (long n : this.latencyBuckets) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * Returns an upper bound on the given percentile of sale latency, accurate to within a factor of 2
+     *
+     * @param percentile the percentile, e.g. 99 for the p99
+     * @return the percentile in nanoseconds, or 0 if no sale has been timed
+     */
+
+    public long latencyPercentile(double percentile) {
+        long count = getTimedSales();
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < this.latencyBuckets.length; i++) {
+            seen += this.latencyBuckets[i];
+            if (seen >= rank && seen > 0) {
+                return (i == 63) ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the mean sale latency
+     *
+     * @return the mean in nanoseconds, or 0 if no sale has been timed
+     */
+
+    public long latencyMean() {
+        long count = getTimedSales();
+        return (count == 0) ? 0 : this.latencyTotalNanos / count;
+    }
+
+    /**
+     * Writes the snapshot in the Prometheus text format
+     *
+     * @param out where to write it, e.g. a Writer for the file a Prometheus agent reads
+     * @throws IOException if the output cannot be written to
+     */
+
+    public void writePrometheus(Appendable out) throws IOException {
+        String cafe = "cafe=\"" + escapeLabel(this.cafeName) + "\"";
+        out.append("# TYPE cafe_coffees_sold_total counter\n");
+        for (Map.Entry<Integer, Long> entry : this.coffeesBySize.entrySet()) {
+            out.append("cafe_coffees_sold_total{" + cafe + ",size=\"" + entry.getKey() + "\"} " + entry.getValue() + "\n");
+        }
+        out.append("# TYPE cafe_sugar_packets_used_total counter\n");
+        out.append("cafe_sugar_packets_used_total{" + cafe + "} " + this.sugarPacketsUsed + "\n");
+        out.append("# TYPE cafe_creams_used_total counter\n");
+        out.append("cafe_creams_used_total{" + cafe + "} " + this.creamsUsed + "\n");
+        out.append("# TYPE cafe_restocks_total counter\n");
+        out.append("cafe_restocks_total{" + cafe + "} " + this.restocks + "\n");
+        out.append("# TYPE cafe_restock_batches_total counter\n");
+        out.append("cafe_restock_batches_total{" + cafe + "} " + this.restockBatches + "\n");
+        out.append("# TYPE cafe_closed_sale_attempts_total counter\n");
+        out.append("cafe_closed_sale_attempts_total{" + cafe + "} " + this.closedSaleAttempts + "\n");
+        out.append("# TYPE cafe_inventory gauge\n");
+        out.append("cafe_inventory{" + cafe + ",item=\"coffee_ounces\"} " + this.coffeeOunces + "\n");
+        out.append("cafe_inventory{" + cafe + ",item=\"sugar_packets\"} " + this.sugarPackets + "\n");
+        out.append("cafe_inventory{" + cafe + ",item=\"creams\"} " + this.creams + "\n");
+        out.append("cafe_inventory{" + cafe + ",item=\"cups\"} " + this.cups + "\n");
+        out.append("# HELP cafe_sale_latency_seconds Latency of a random sample of sales\n");
+        out.append("# TYPE cafe_sale_latency_seconds histogram\n");
+        int last = this.latencyBuckets.length - 1;
+        while (last > 0 && this.latencyBuckets[last] == 0) {
+            last--;
+        }
+        long cumulative = 0;
+        for (int i = 0; i <= last && i < 63; i++) {
+            cumulative += this.latencyBuckets[i];
+            out.append("cafe_sale_latency_seconds_bucket{" + cafe + ",le=\"" + (1L << i) / 1e9 + "\"} " + cumulative + "\n");
+        }
+        out.append("cafe_sale_latency_seconds_bucket{" + cafe + ",le=\"+Inf\"} " + getTimedSales() + "\n");
+        out.append("cafe_sale_latency_seconds_sum{" + cafe + "} " + this.latencyTotalNanos / 1e9 + "\n");
+        out.append("cafe_sale_latency_seconds_count{" + cafe + "} " + getTimedSales() + "\n");
+    }
+
+    /**
+     * Escapes a Prometheus label value: backslashes, double quotes and line breaks
+     *
+     * @param value the label value
+     * @return the escaped value
+     */
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Returns a String representation of the snapshot, one counter per line
+     *
+     * @return a String describing the snapshot
+     */
+
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry : this.coffeesBySize.entrySet()) {
+            description.append(entry.getKey()).append(" oz coffees sold: ").append(entry.getValue()).append(System.lineSeparator());
+        }
+        description.append("Sugar packets used: ").append(this.sugarPacketsUsed).append(System.lineSeparator());
+        description.append("Creams used: ").append(this.creamsUsed).append(System.lineSeparator());
+        description.append("Restocks: ").append(this.restocks).append(System.lineSeparator());
+        description.append("Restocks ahead of demand: ").append(this.restockBatches).append(System.lineSeparator());
+        description.append("Sales attempted while closed: ").append(this.closedSaleAttempts).append(System.lineSeparator());
+        if (getTimedSales() == 0) {
+            description.append("Sale latency: no sales timed yet");
+        } else {
+            description.append("Sale latency: mean ").append(latencyMean()).append(" ns, p99 under ").append(latencyPercentile(99)).append(" ns");
+        }
+        return description.toString();
+    }
+
+}
@@ -1,22 +1,107 @@
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CampusMap {
 
-    ArrayList<Building> buildings;
+    LinkedHashSet<Building> buildings; // Keeps the order buildings were added, with O(1) removal
 
-    /* Default constructor, initializes empty ArrayList */
+    /* Indexes of the buildings by name (unique on a map), by address and by type (Building, House, Library, Cafe, ...) */
+    private ConcurrentHashMap<String, Building> buildingsByName;
+    private ConcurrentHashMap<String, Set<Building>> buildingsByAddress;
+    private ConcurrentHashMap<Class<?>, Set<Building>> buildingsByType;
+
+    /* Offline geocode table: the coordinates of each known address, as {latitude, longitude} */
+    private ConcurrentHashMap<String, double[]> geocodes;
+
+    /* Spatial index: located buildings bucketed into a uniform grid of GRID_CELL-degree cells, keyed by gridKey() */
+    private ConcurrentHashMap<Long, Set<Building>> grid;
+    private static final double GRID_CELL = 0.001; // About 111 m north-south, less east-west the further the cell is from the equator
+    private static final double METERS_PER_DEGREE = 111320; // The same scale Building.distance() uses
+    private int nLocated; // The number of buildings in the grid
+
+    /* Walking graph: the length in meters of each walkway, stored in both directions */
+    private HashMap<Building, HashMap<Building, Double>> walkways;
+
+    /* The fraction of the straight-line distance A* uses as its estimate; kept at or below the ratio of every walkway's
+       length to the straight line between its ends, so the estimate never exceeds the real walking distance */
+    private double heuristicScale = 0.99;
+
+    /* The most recently used shortest routes, keyed by {from, to}; the least recently used is dropped once there are ROUTE_CACHE_SIZE */
+    private LinkedHashMap<List<Building>, ArrayList<Building>> routeCache;
+    private static final int ROUTE_CACHE_SIZE = 1000;
+
+    /* Index from each resident to the House they live in, kept up to date by House.moveIn() and House.moveOut() */
+    private ConcurrentHashMap<String, House> residences;
+
+    /* Residents of houses with a dining room */
+    private Set<String> diningResidents;
+
+    /* Default constructor, initializes empty set and indexes */
     public CampusMap() {
-        buildings = new ArrayList<Building>();
+        buildings = new LinkedHashSet<Building>();
+        buildingsByName = new ConcurrentHashMap<String, Building>();
+        buildingsByAddress = new ConcurrentHashMap<String, Set<Building>>();
+        buildingsByType = new ConcurrentHashMap<Class<?>, Set<Building>>();
+        geocodes = new ConcurrentHashMap<String, double[]>();
+        grid = new ConcurrentHashMap<Long, Set<Building>>();
+        walkways = new HashMap<Building, HashMap<Building, Double>>();
+        routeCache = new LinkedHashMap<List<Building>, ArrayList<Building>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<Building>, ArrayList<Building>> eldest) {
+                return size() > ROUTE_CACHE_SIZE;
+            }
+        };
+        residences = new ConcurrentHashMap<String, House>();
+        diningResidents = ConcurrentHashMap.newKeySet();
     }
 
     /**
      * Adds a Building to the map
      * @param b the Building to add
+     * @throws RuntimeException if the building, or another building with the same name, is already on the map,
+     *                          or it is a house and one of its residents already lives in another house on the map,
+     *                          or it has no name or address to index it under
      */
-    public void addBuilding(Building b) {
-        System.out.println("Adding building...");
+    public synchronized void addBuilding(Building b) {
+        Building.log("Adding building...");
+        if (b.getName() == null || b.getAddress() == null) {
+            throw new RuntimeException("Cannot add a building without a name and an address to the map: " + b);
+        }
+        if (buildings.contains(b)) {
+            throw new RuntimeException(b.getName() + " is already on the map.");
+        }
+        if (buildingsByName.putIfAbsent(b.getName(), b) != null) {
+            throw new RuntimeException("A building named " + b.getName() + " is already on the map.");
+        }
+        if (b instanceof House) {
+            try {
+                ((House) b).joinCampusMap(this);
+            } catch (RuntimeException e) {
+                buildingsByName.remove(b.getName(), b);
+                throw e;
+            }
+        }
         buildings.add(b);
-        System.out.println("-->Successfully added " + b.getName() + " to the map.");
+        bucket(buildingsByAddress, b.getAddress()).add(b);
+        for (Class<?> type = b.getClass(); Building.class.isAssignableFrom(type); type = type.getSuperclass()) {
+            bucket(buildingsByType, type).add(b);
+        }
+        double[] location = geocodes.get(b.getAddress());
+        if (location != null) {
+            b.setLocation(location[0], location[1]);
+        }
+        addToGrid(b);
+        Building.log(() -> "-->Successfully added " + b.getName() + " to the map.");
     }
 
     /**
@@ -24,24 +109,591 @@ public class CampusMap {
      * @param b the Building to remove
      * @return the removed Building
      */
-    public Building removeBuilding(Building b) {
-        System.out.println("Removing building...");
-        buildings.remove(b);
-        System.out.println("-->Successfully removed " + b.getName() + " to the map.");
+    public synchronized Building removeBuilding(Building b) {
+        Building.log("Removing building...");
+        if (!buildings.remove(b)) {
+            throw new RuntimeException(b.getName() + " is not on the map.");
+        }
+        buildingsByName.remove(b.getName(), b);
+        unbucket(buildingsByAddress, b.getAddress(), b);
+        for (Class<?> type = b.getClass(); Building.class.isAssignableFrom(type); type = type.getSuperclass()) {
+            unbucket(buildingsByType, type, b);
+        }
+        removeFromGrid(b);
+        HashMap<Building, Double> paths = walkways.remove(b);
+        if (paths != null) {
+            for (Building neighbor : paths.keySet()) {
+                walkways.get(neighbor).remove(b);
+            }
+            // Only routes that started, ended or passed through b can have changed
+            routeCache.values().removeIf(route -> route != null && route.contains(b));
+            routeCache.keySet().removeIf(key -> key.contains(b));
+        }
+        if (b instanceof House) {
+            ((House) b).leaveCampusMap(this);
+        }
+        Building.log(() -> "-->Successfully removed " + b.getName() + " to the map.");
         return b;
     }
 
-    public String toString() {
-        String mapString = "DIRECTORY of BUILDINGS";
+    /**
+     * Returns the set of buildings stored under a key in one of the indexes, creating it on first use
+     * @param index the index
+     * @param key the name, address or type
+     * @return the buildings under that key, in the order they were added
+     */
+    private static <K> Set<Building> bucket(ConcurrentHashMap<K, Set<Building>> index, K key) {
+        return index.computeIfAbsent(key, k -> Collections.synchronizedSet(new LinkedHashSet<Building>()));
+    }
+
+    /**
+     * Removes a building from the set stored under a key in one of the indexes, dropping the set once it is empty
+     * @param index the index
+     * @param key the name, address or type
+     * @param b the building to remove
+     * @return true if the building was in the set
+     */
+    private static <K> boolean unbucket(ConcurrentHashMap<K, Set<Building>> index, K key, Building b) {
+        boolean[] removed = new boolean[1];
+        index.computeIfPresent(key, (k, set) -> {
+            removed[0] = set.remove(b);
+            return set.isEmpty() ? null : set;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Finds a building by name
+     * @param name the name of the building
+     * @return the Building with that name, or null if there is none on the map
+     */
+    public Building getBuilding(String name) {
+        return buildingsByName.get(name);
+    }
+
+    /**
+     * Finds every building at an address
+     * @param address the address
+     * @return the buildings at that address, in the order they were added
+     */
+    public ArrayList<Building> getBuildingsAt(String address) {
+        Set<Building> atAddress = buildingsByAddress.get(address);
+        if (atAddress == null) {
+            return new ArrayList<Building>();
+        }
+        synchronized (atAddress) {
+            return new ArrayList<Building>(atAddress);
+        }
+    }
+
+    /**
+     * Finds every building of a type, e.g. getBuildings(House.class) or getBuildings(Cafe.class)
+     * @param type the type of building
+     * @return the buildings of that type, including subtypes, in the order they were added
+     */
+    public <T extends Building> ArrayList<T> getBuildings(Class<T> type) {
+        Set<Building> ofType = buildingsByType.get(type);
+        ArrayList<T> result = new ArrayList<T>();
+        if (ofType == null) {
+            return result;
+        }
+        synchronized (ofType) {
+            for (Building b : ofType) {
+                result.add(type.cast(b));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the coordinates of an address in the map's geocode table, and locates every building at that address,
+     * now or when it is added later. If that makes a walkway shorter than the straight line between its ends, route
+     * searches lower their estimate to match, so they stay exact.
+     * @param address the address
+     * @param latitude the latitude of the address in degrees
+     * @param longitude the longitude of the address in degrees
+     */
+    public synchronized void geocode(String address, double latitude, double longitude) {
+        geocodes.put(address, new double[] { latitude, longitude });
+        for (Building b : getBuildingsAt(address)) {
+            removeFromGrid(b);
+            b.setLocation(latitude, longitude);
+            addToGrid(b);
+            HashMap<Building, Double> paths = walkways.get(b);
+            if (paths != null) {
+                for (Map.Entry<Building, Double> path : paths.entrySet()) {
+                    double straightLine = b.distanceTo(path.getKey());
+                    if (straightLine > 0) {
+                        heuristicScale = Math.min(heuristicScale, path.getValue() / straightLine);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the buildings of a type closest to a point, e.g. the 3 nearest cafes to a house
+     * @param latitude the latitude of the point in degrees
+     * @param longitude the longitude of the point in degrees
+     * @param k the maximum number of buildings to return
+     * @param type the type of building to look for, or Building.class for any
+     * @return up to k located buildings of that type, nearest first
+     */
+    public synchronized <T extends Building> ArrayList<T> nearest(double latitude, double longitude, int k, Class<T> type) {
+        ArrayList<T> found = new ArrayList<T>();
+        if (k < 1) {
+            return found;
+        }
+        Comparator<Building> byDistance = Comparator.comparingDouble(b -> byDistanceFrom(latitude, longitude, b));
+        int row = (int) Math.floor(latitude / GRID_CELL);
+        int col = (int) Math.floor(longitude / GRID_CELL);
+        int nScanned = 0;
+        long nCellsVisited = 0;
+        // Scan rings of cells outward; a cell in ring n is at least n - 1 cell widths away, so once the k-th closest so far is nearer than that, stop
+        for (int ring = 0; nScanned < nLocated; ring++) {
+            if (found.size() >= k && byDistanceFrom(latitude, longitude, found.get(k - 1)) <= (ring - 1) * cellWidth(latitude, ring)) {
+                break;
+            }
+            if (nCellsVisited > nLocated) {
+                // The buildings are sparse around this point, so checking each of them is cheaper than visiting more empty cells
+                found = locatedBuildings(type);
+                found.sort(byDistance);
+                break;
+            }
+            if (ring == 0) {
+                nScanned += scanCell(row, col, type, found);
+            } else {
+                for (int c = col - ring; c <= col + ring; c++) {
+                    nScanned += scanCell(row - ring, c, type, found) + scanCell(row + ring, c, type, found);
+                }
+                for (int r = row - ring + 1; r < row + ring; r++) {
+                    nScanned += scanCell(r, col - ring, type, found) + scanCell(r, col + ring, type, found);
+                }
+            }
+            nCellsVisited += (ring == 0) ? 1 : 8L * ring;
+            found.sort(byDistance);
+            while (found.size() > k) {
+                found.remove(found.size() - 1);
+            }
+        }
+        while (found.size() > k) {
+            found.remove(found.size() - 1);
+        }
+        return found;
+    }
 
-        for (int i = 0; i < this.buildings.size(); i ++) {
-            mapString += "\n  " + (i+1) + ". "+ this.buildings.get(i).getName() + " (" + this.buildings.get(i).getAddress() + ")";
+    /**
+     * Finds the buildings of a type within a radius of a building, e.g. all libraries within 300 m of Ford Hall
+     * @param from the building at the center of the search; it must have been located
+     * @param meters the radius in meters
+     * @param type the type of building to look for, or Building.class for any
+     * @return the located buildings of that type within the radius, other than from itself, nearest first
+     * @throws RuntimeException if from has not been located
+     */
+    public synchronized <T extends Building> ArrayList<T> withinRadius(Building from, double meters, Class<T> type) {
+        if (!from.hasLocation()) {
+            throw new RuntimeException(from.getName() + " has not been located. Call geocode() for its address first.");
+        }
+        ArrayList<T> found = new ArrayList<T>();
+        int rows = (int) Math.ceil(meters / METERS_PER_DEGREE / GRID_CELL);
+        double cols = Math.ceil(meters / cellWidth(from.getLatitude(), rows));
+        int row = (int) Math.floor(from.getLatitude() / GRID_CELL);
+        int col = (int) Math.floor(from.getLongitude() / GRID_CELL);
+        if ((2.0 * rows + 1) * (2 * cols + 1) > nLocated) {
+            // The circle covers more cells than there are located buildings, so check each building instead
+            for (T b : locatedBuildings(type)) {
+                if (b != from && from.distanceTo(b) <= meters) {
+                    found.add(b);
+                }
+            }
+        } else {
+            for (int r = row - rows; r <= row + rows; r++) {
+                for (int c = col - (int) cols; c <= col + (int) cols; c++) {
+                    Set<Building> cell = grid.get(gridKey(r, c));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (Building b : cell) {
+                        if (b != from && type.isInstance(b) && from.distanceTo(b) <= meters) {
+                            found.add(type.cast(b));
+                        }
+                    }
+                }
+            }
         }
-        return mapString;
+        found.sort(Comparator.comparingDouble(from::distanceTo));
+        return found;
+    }
+
+    /* Returns a lower bound on the east-west width in meters of any cell within the given number of rows of a latitude;
+       cells narrow towards the poles, so the bound uses the latitude furthest from the equator in that band */
+    private static double cellWidth(double latitude, int nRows) {
+        double furthest = Math.min(90, Math.abs(latitude) + (nRows + 1) * GRID_CELL);
+        return Math.max(0, GRID_CELL * METERS_PER_DEGREE * Math.cos(Math.toRadians(furthest)));
+    }
+
+    /* Adds the buildings of a type in one grid cell to a list, returning how many buildings of any type the cell holds */
+    private <T extends Building> int scanCell(int row, int col, Class<T> type, ArrayList<T> found) {
+        Set<Building> cell = grid.get(gridKey(row, col));
+        if (cell == null) {
+            return 0;
+        }
+        for (Building b : cell) {
+            if (type.isInstance(b)) {
+                found.add(type.cast(b));
+            }
+        }
+        return cell.size();
+    }
+
+    /* Returns every located building of a type */
+    private <T extends Building> ArrayList<T> locatedBuildings(Class<T> type) {
+        ArrayList<T> located = new ArrayList<T>();
+        for (T b : getBuildings(type)) {
+            if (b.hasLocation()) {
+                located.add(b);
+            }
+        }
+        return located;
+    }
+
+    /* Returns the distance in meters from a point to a located building */
+    private static double byDistanceFrom(double latitude, double longitude, Building b) {
+        return Building.distance(latitude, longitude, b.getLatitude(), b.getLongitude());
+    }
+
+    /* Packs a grid row and column into a single key */
+    private static long gridKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    /* Adds a building to the grid, if it has been located */
+    private void addToGrid(Building b) {
+        if (b.hasLocation()) {
+            long key = gridKey((int) Math.floor(b.getLatitude() / GRID_CELL), (int) Math.floor(b.getLongitude() / GRID_CELL));
+            if (bucket(grid, key).add(b)) {
+                nLocated++;
+            }
+        }
+    }
+
+    /* Removes a building from the grid, if it was in it */
+    private void removeFromGrid(Building b) {
+        if (b.hasLocation()) {
+            long key = gridKey((int) Math.floor(b.getLatitude() / GRID_CELL), (int) Math.floor(b.getLongitude() / GRID_CELL));
+            if (unbucket(grid, key, b)) {
+                nLocated--;
+            }
+        }
+    }
+
+    /**
+     * Adds a walkway between two buildings on this map, or shortens an existing one
+     * @param a one end of the walkway
+     * @param b the other end of the walkway
+     * @param meters the length of the walkway in meters
+     * @throws RuntimeException if either building is not on the map, or the walkway is shorter than a straight line between them
+     */
+    public synchronized void addWalkway(Building a, Building b, double meters) {
+        if (!buildings.contains(a) || !buildings.contains(b)) {
+            throw new RuntimeException("Both buildings must be on the map before they can be joined by a walkway.");
+        }
+        if (a.hasLocation() && b.hasLocation() && meters < 0.99 * a.distanceTo(b)) {
+            throw new RuntimeException("A walkway from " + a.getName() + " to " + b.getName() + " cannot be shorter than " + Math.round(a.distanceTo(b)) + " m.");
+        }
+        walkways.computeIfAbsent(a, k -> new HashMap<Building, Double>()).merge(b, meters, Math::min);
+        walkways.computeIfAbsent(b, k -> new HashMap<Building, Double>()).merge(a, meters, Math::min);
+        routeCache.clear(); // A new walkway can shorten any route
+    }
+
+    /**
+     * Finds the shortest walking route between two buildings, using A* with straight-line distance as the guide when
+     * the buildings have been located. Popular routes are served from a cache.
+     * @param from the building to start at
+     * @param to the building to end at
+     * @return the buildings along the route, from first to last, or null if there is no route
+     */
+    public synchronized ArrayList<Building> shortestRoute(Building from, Building to) {
+        List<Building> key = List.of(from, to);
+        if (!routeCache.containsKey(key)) {
+            routeCache.put(key, searchRoute(from, to, null));
+        }
+        ArrayList<Building> route = routeCache.get(key);
+        return (route == null) ? null : new ArrayList<Building>(route);
+    }
+
+    /**
+     * Finds the closest building of a type by walking distance, e.g. the nearest Library to a House
+     * @param from the building to start at
+     * @param type the type of building to look for
+     * @return the buildings along the route to the closest building of that type other than from, or null if none can be reached
+     */
+    public synchronized ArrayList<Building> shortestRoute(Building from, Class<? extends Building> type) {
+        return searchRoute(from, null, type);
+    }
+
+    /**
+     * Adds up the length of a route
+     * @param route the buildings along the route
+     * @return the length of the route in meters
+     * @throws RuntimeException if two consecutive buildings are not joined by a walkway
+     */
+    public synchronized double routeLength(List<Building> route) {
+        double meters = 0;
+        for (int i = 1; i < route.size(); i++) {
+            HashMap<Building, Double> paths = walkways.get(route.get(i - 1));
+            Double length = (paths == null) ? null : paths.get(route.get(i));
+            if (length == null) {
+                throw new RuntimeException("There is no walkway from " + route.get(i - 1).getName() + " to " + route.get(i).getName() + ".");
+            }
+            meters += length;
+        }
+        return meters;
+    }
+
+    /* Runs A* (or plain Dijkstra when there is no located target) from one building to a target building or to the first building of a type */
+    private ArrayList<Building> searchRoute(Building from, Building to, Class<? extends Building> type) {
+        HashMap<Building, Double> walked = new HashMap<Building, Double>();
+        HashMap<Building, Building> cameFrom = new HashMap<Building, Building>();
+        PriorityQueue<Map.Entry<Building, Double>> frontier = new PriorityQueue<Map.Entry<Building, Double>>(Map.Entry.comparingByValue());
+        walked.put(from, 0.0);
+        frontier.add(Map.entry(from, estimate(from, to)));
+        while (!frontier.isEmpty()) {
+            Building current = frontier.poll().getKey();
+            if (current == to || (type != null && current != from && type.isInstance(current))) {
+                ArrayList<Building> route = new ArrayList<Building>();
+                for (Building b = current; b != null; b = cameFrom.get(b)) {
+                    route.add(0, b);
+                }
+                return route;
+            }
+            HashMap<Building, Double> paths = walkways.get(current);
+            if (paths == null) {
+                continue;
+            }
+            for (Map.Entry<Building, Double> path : paths.entrySet()) {
+                double distance = walked.get(current) + path.getValue();
+                Building next = path.getKey();
+                if (!walked.containsKey(next) || distance < walked.get(next)) {
+                    walked.put(next, distance);
+                    cameFrom.put(next, current);
+                    frontier.add(Map.entry(next, distance + estimate(next, to)));
+                }
+            }
+        }
+        return null;
+    }
+
+    /* A lower bound on the walking distance between two buildings; never more than the real distance, so A* stays exact */
+    private double estimate(Building b, Building to) {
+        if (to == null || !b.hasLocation() || !to.hasLocation()) {
+            return 0;
+        }
+        return heuristicScale * b.distanceTo(to);
+    }
+
+    /**
+     * Finds the house a student lives in
+     * @param resident the name of the student
+     * @return the House on this map the student lives in, or null if they do not live on this map
+     */
+    public House findResidence(String resident) {
+        return residences.get(resident);
+    }
+
+    /**
+     * Lists every student who lives in a house with a dining room
+     * @return the names of those students
+     */
+    public ArrayList<String> residentsWithDiningRoom() {
+        return new ArrayList<String>(diningResidents);
+    }
+
+    /**
+     * Records that a student has moved into one of this map's houses.
+     * Both indexes are updated inside one atomic compute on the student's entry, so they always agree,
+     * and a student can only live in one house on the map: claiming a second one fails and leaves the indexes alone.
+     * @param resident the name of the student
+     * @param house the house they moved into
+     * @throws RuntimeException if the student already lives in another house on this map
+     */
+    void residentMovedIn(String resident, House house) {
+        residences.compute(resident, (name, previous) -> {
+            if (previous != null && previous != house) {
+                throw new RuntimeException(name + " already lives in " + previous.getName() + ".");
+            }
+            if (house.hasDiningRoom()) {
+                diningResidents.add(name);
+            } else {
+                diningResidents.remove(name);
+            }
+            return house;
+        });
+    }
+
+    /**
+     * Records that a student has moved out of one of this map's houses, unless they have already moved somewhere else
+     * @param resident the name of the student
+     * @param house the house they moved out of
+     */
+    void residentMovedOut(String resident, House house) {
+        residences.computeIfPresent(resident, (name, current) -> {
+            if (current != house) {
+                return current;
+            }
+            diningResidents.remove(name);
+            return null;
+        });
+    }
+
+    /**
+     * Places students in the houses on this map.
+     * Each student goes to their preferred house if it suits them and has room; otherwise they go to
+     * the suitable house with the most rooms available, with ties going to the house added to the map first.
+     * Houses without a room limit are only used once every suitable house with a limit is full, fewest residents first.
+     * Students who already live in one of this map's houses are skipped.
+     * Students are placed in the order given, so the same preferences always produce the same assignment.
+     * @param preferences the students to place and what they are looking for
+     * @return the house each placed student moved into, in the order given; students who could not be placed are left out
+     */
+    public LinkedHashMap<String, House> assignHousing(List<HousingPreference> preferences) {
+        ArrayList<House> houses = getBuildings(House.class);
+        LinkedHashMap<String, House> assignments = new LinkedHashMap<String, House>();
+        for (HousingPreference preference : preferences) {
+            House current = findResidence(preference.getStudent());
+            if (current != null) {
+                Building.log(() -> preference.getStudent() + " already lives in " + current.getName() + ".");
+                continue;
+            }
+            House best = null;
+            for (House house : houses) {
+                if (!preference.isSuitable(house) || house.roomsAvailable() == 0) {
+                    continue;
+                }
+                if (house.getName().equals(preference.getPreferredHouse())) {
+                    best = house;
+                    break;
+                }
+                if (best == null || ranksAbove(house, best)) {
+                    best = house;
+                }
+            }
+            if (best == null) {
+                continue;
+            }
+            try {
+                best.moveIn(preference.getStudent());
+                assignments.put(preference.getStudent(), best);
+            } catch (RuntimeException e) {
+                Building.log(() -> "Could not place " + preference.getStudent() + ": " + e.getMessage());
+            }
+        }
+        Building.log(() -> "Placed " + assignments.size() + " of " + preferences.size() + " students.");
+        return assignments;
+    }
+
+    /**
+     * Decides whether one suitable house is a better place for a student than another.
+     * Houses with a room limit come first, the one with the most rooms available first;
+     * houses without a limit report Integer.MAX_VALUE rooms, so they are compared by how few residents they have instead.
+     * @param house the house being considered
+     * @param other the best house found so far
+     * @return true if house should be chosen over other
+     */
+    private static boolean ranksAbove(House house, House other) {
+        if (house.hasRoomLimit() != other.hasRoomLimit()) {
+            return house.hasRoomLimit();
+        }
+        if (house.hasRoomLimit()) {
+            return house.roomsAvailable() > other.roomsAvailable();
+        }
+        return house.nResidents() < other.nResidents();
+    }
+
+    /**
+     * Sells a coffee at whichever cafe on this map is best placed to make it:
+     * one that is open at the given hour and has the most of that coffee left in stock,
+     * so busy cafes are spared restocks while quieter ones pick up the demand.
+     * Ties go to the cafe added to the map first.
+     * @param hour the hour of the day in 24-hour format
+     * @param size the size of the coffee in ounces
+     * @param nSugarPackets the number of sugar packets to add to the coffee
+     * @param nCreams the number of cream containers to add to the coffee
+     * @return the Cafe that sold the coffee, or null if no cafe is open
+     */
+    public Cafe sellCoffee(int hour, int size, int nSugarPackets, int nCreams) {
+        Cafe best = null;
+        int bestServings = -1;
+        for (Cafe cafe : getBuildings(Cafe.class)) {
+            if (!cafe.isOpen(hour)) {
+                continue;
+            }
+            int servings = cafe.servingsLeft(size, nSugarPackets, nCreams);
+            if (servings > bestServings) {
+                best = cafe;
+                bestServings = servings;
+            }
+        }
+        if (best == null) {
+            Building.log(() -> "Sorry, no cafes are open at " + hour + ":00.");
+            return null;
+        }
+        Building.log("Sending your order to " + best.getName() + "...");
+        best.sellCoffee(size, nSugarPackets, nCreams);
+        return best;
+    }
+
+    /**
+     * Writes one page of the directory, one numbered line per building, straight to the given output
+     * @param out where to write the lines, e.g. System.out, a StringBuilder or a Writer
+     * @param type the type of building to list, e.g. House.class, or Building.class for all of them
+     * @param offset the number of buildings to skip before the page starts
+     * @param limit the maximum number of buildings to write
+     * @return the number of buildings written
+     * @throws RuntimeException if the output cannot be written to
+     */
+    public int printDirectory(Appendable out, Class<? extends Building> type, int offset, int limit) {
+        Set<Building> ofType = buildingsByType.get(type);
+        if (ofType == null) {
+            return 0; // nothing of that type has ever been added; don't create an index entry just to look
+        }
+        // Copy just this page under the set's lock, then write it without the lock, so a slow output never holds up addBuilding
+        ArrayList<Building> page = new ArrayList<Building>();
+        int first = Math.max(offset, 0);
+        int i = 0;
+        synchronized (ofType) {
+            for (Building b : ofType) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                if (i++ >= first) {
+                    page.add(b);
+                }
+            }
+        }
+        try {
+            for (int j = 0; j < page.size(); j++) {
+                Building b = page.get(j);
+                out.append("\n  ").append(String.valueOf(first + j + 1)).append(". ").append(b.getName()).append(" (").append(b.getAddress()).append(")");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the directory", e);
+        }
+        return page.size();
+    }
+
+    public String toString() {
+        StringBuilder mapString = new StringBuilder("DIRECTORY of BUILDINGS");
+        printDirectory(mapString, Building.class, 0, Integer.MAX_VALUE);
+        return mapString.toString();
     }
 
     public static void main(String[] args) {
         CampusMap myMap = new CampusMap();
+        myMap.geocode("100 Green Street Northampton, MA 01063", 42.3176, -72.6388);
+        myMap.geocode("7 Neilson Drive, Northampton, MA 01063", 42.3181, -72.6377);
+        myMap.geocode("1 Chapin Way, Northampton, MA 01063", 42.3192, -72.6394);
+        myMap.geocode("50 Elm Street, Northampton, MA 01063", 42.3197, -72.6401);
         myMap.addBuilding(new Building("Ford Hall", "100 Green Street Northampton, MA 01063", 4));
         myMap.addBuilding(new Building("Sabin Reed", "44 College Ln, Northampton, MA 01063", 3));
         myMap.addBuilding(new Building("Bass Hall", "4 Tyler Court Northampton, MA 01063", 4));
@@ -56,6 +708,60 @@ public class CampusMap {
 
     System.out.println(myMap);
         System.out.println(myMap);
+
+        ArrayList<HousingPreference> preferences = new ArrayList<HousingPreference>();
+        preferences.add(new HousingPreference("Ada", "Chapin House", true, false));
+        preferences.add(new HousingPreference("Grace", true, true));
+        preferences.add(new HousingPreference("Katherine", false, false));
+        myMap.assignHousing(preferences);
+        System.out.println("Grace lives in " + myMap.findResidence("Grace").getName());
+        myMap.assignHousing(preferences.subList(0, 1)); // Ada already has a room, so Ada is skipped rather than placed twice
+        try {
+            ((House) myMap.getBuilding("Jordan House")).moveIn("Grace"); // one room per student across the whole campus
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+        System.out.println("Residents with a dining room: " + myMap.residentsWithDiningRoom());
+
+        myMap.sellCoffee(9, 12, 2, 1);
+        myMap.sellCoffee(21, 12, 2, 1);
+        myMap.sellCoffee(23, 12, 2, 1);
+
+        // Place students quietly, without a message per student
+        Building.setEventLog(null);
+        ArrayList<HousingPreference> classOf2030 = new ArrayList<HousingPreference>();
+        for (int i = 1; i <= 100; i++) {
+            classOf2030.add(new HousingPreference("Student " + i, false, false));
+        }
+        myMap.assignHousing(classOf2030);
+        Building.setEventLog(System.out);
+        System.out.println("Student 42 lives in " + myMap.findResidence("Student 42").getName());
+
+        System.out.println("Buildings at 7 Neilson Drive: " + myMap.getBuildingsAt("7 Neilson Drive, Northampton, MA 01063").size());
+        System.out.println("Houses on the map: " + myMap.getBuildings(House.class).size());
+        myMap.removeBuilding(myMap.getBuilding("Bass Hall"));
+
+        Building fordHall = myMap.getBuilding("Ford Hall");
+        System.out.println("Nearest cafe to Ford Hall: " + myMap.nearest(fordHall.getLatitude(), fordHall.getLongitude(), 1, Cafe.class).get(0).getName());
+        System.out.println("Buildings within 300 m of Ford Hall: " + myMap.withinRadius(fordHall, 300, Building.class).size());
+
+        Building chapin = myMap.getBuilding("Chapin House");
+        Building neilson = myMap.getBuilding("Neilson Library");
+        Building campusCafe = myMap.getBuilding("Campus Cafe");
+        myMap.addWalkway(chapin, campusCafe, 120);
+        myMap.addWalkway(campusCafe, neilson, 220);
+        myMap.addWalkway(chapin, fordHall, 300);
+        myMap.addWalkway(fordHall, neilson, 150);
+        ArrayList<Building> route = myMap.shortestRoute(chapin, Library.class);
+        System.out.print("Walk from Chapin House to the nearest library (" + Math.round(myMap.routeLength(route)) + " m):");
+        for (Building stop : route) {
+            System.out.print(" " + stop.getName() + ";");
+        }
+        System.out.println();
+
+        System.out.print("HOUSES");
+        myMap.printDirectory(System.out, House.class, 0, 10);
+        System.out.println();
     }
     
 }
@@ -0,0 +1,74 @@
+import java.util.List;
+
+/**
+ * A CampusShard is one part of a ShardedCampusMap, as the coordinator sees it
+ * The coordinator only talks to shards through this interface, so a shard can live in the same process (LocalCampusShard)
+ * or behind whatever transport reaches another machine, without the coordinator changing
+ */
+
+public interface CampusShard {
+
+    /**
+     * Adds a Building to this shard
+     *
+     * @param b the Building to add
+     * @throws RuntimeException if the shard cannot take the building, e.g. one with the same name is already on it
+     */
+
+    void addBuilding(Building b);
+
+    /**
+     * Removes a Building from this shard
+     *
+     * @param b the Building to remove
+     * @return the removed Building
+     * @throws RuntimeException if the building is not on this shard
+     */
+
+    Building removeBuilding(Building b);
+
+    /**
+     * Finds a building on this shard by name
+     *
+     * @param name the name of the building
+     * @return the Building with that name, or null if there is none
+     */
+
+    Building getBuilding(String name);
+
+    /**
+     * Finds every building of a type on this shard
+     *
+     * @param type the type of building, e.g. House.class
+     * @return the buildings of that type, in the order they were added
+     */
+
+    <T extends Building> List<T> getBuildings(Class<T> type);
+
+    /**
+     * Counts the buildings of a type on this shard, without sending the buildings themselves
+     *
+     * @param type the type of building, e.g. House.class, or Building.class for all of them
+     * @return the number of buildings of that type
+     */
+
+    int countBuildings(Class<? extends Building> type);
+
+    /**
+     * Finds the house on this shard that a student lives in
+     *
+     * @param resident the name of the student
+     * @return the House the student lives in, or null if they do not live on this shard
+     */
+
+    House findResidence(String resident);
+
+    /**
+     * Returns this shard's directory of buildings
+     *
+     * @return the directory
+     */
+
+    String directory();
+
+}
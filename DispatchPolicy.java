@@ -0,0 +1,45 @@
+import java.util.NavigableSet;
+
+/**
+ * A DispatchPolicy decides which pending request an Elevator car serves next
+ * Cars use LOOK unless they are given another policy, so policies can be compared on the same traffic
+ */
+
+public interface DispatchPolicy {
+
+    /**
+     * Picks the floor the car should stop at next
+     *
+     * @param currentFloor the floor the car is on
+     * @param goingUp whether the car's last move was upwards
+     * @param requests the floors that have been requested but not yet visited; never empty
+     * @return one of the requested floors
+     */
+
+    int nextStop(int currentFloor, boolean goingUp, NavigableSet<Integer> requests);
+
+    /** LOOK: keep going the same way while there are requests ahead, then turn around */
+    DispatchPolicy LOOK = (currentFloor, goingUp, requests) -> {
+        Integer next = goingUp ? requests.ceiling(currentFloor) : requests.floor(currentFloor);
+        if (next == null) {
+            next = goingUp ? requests.floor(currentFloor) : requests.ceiling(currentFloor); // nothing left ahead, so turn around
+        }
+        return next;
+    };
+
+    /** Nearest first: always serve the closest request, whichever way it is; a tie goes the way the car is already moving */
+    DispatchPolicy NEAREST_FIRST = (currentFloor, goingUp, requests) -> {
+        Integer above = requests.ceiling(currentFloor);
+        Integer below = requests.floor(currentFloor);
+        if (above == null) {
+            return below;
+        }
+        if (below == null) {
+            return above;
+        }
+        int toAbove = above - currentFloor;
+        int toBelow = currentFloor - below;
+        return (toAbove < toBelow || (toAbove == toBelow && goingUp)) ? above : below;
+    };
+
+}
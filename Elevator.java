@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * The Elevator class schedules the stops of a single elevator car
+ * Requests are batched and served in the order the car's DispatchPolicy picks, LOOK by default: the car keeps going
+ * in its current direction while there are requests ahead of it, then turns around, instead of visiting floors in the order they were asked for
+ * Riders share the car: requests made while it is moving join the current sweep
+ */
+
+public class Elevator {
+
+    /** How long the car waits at each stop, in milliseconds, so that other riders can board and add their floors before it moves on */
+    private static final long DWELL_MILLIS = 1;
+
+    /** The floor the car is currently on */
+    private int currentFloor;
+
+    /** Whether the car is currently travelling up */
+    private boolean goingUp;
+
+    /** The floors that have been requested but not yet visited */
+    private TreeSet<Integer> requests;
+
+    /** Picks which requested floor the car visits next */
+    private DispatchPolicy policy;
+
+    /** The total number of floors the car has travelled; the car's clock, since it moves one floor per unit of time */
+    private int floorsTravelled;
+
+    /** The number of stops the car has made */
+    private long nStops;
+
+    /** The number of the latest stop the car made at each floor */
+    private HashMap<Integer, Long> lastStops;
+
+    /** The number of riders the car has picked up */
+    private long nRiders;
+
+    /** The total and longest number of floors the car travelled between a rider's call and their pickup */
+    private long totalWait;
+    private int longestWait;
+
+    /**
+     * Creates a new Elevator waiting on the ground floor, dispatched with LOOK
+     */
+
+    public Elevator() {
+        this(DispatchPolicy.LOOK);
+    }
+
+    /**
+     * Creates a new Elevator waiting on the ground floor
+     *
+     * @param policy the policy that picks the car's next stop
+     */
+
+    public Elevator(DispatchPolicy policy) {
+        this.currentFloor = 1;
+        this.goingUp = true;
+        this.requests = new TreeSet<Integer>();
+        this.policy = policy;
+        this.lastStops = new HashMap<Integer, Long>();
+    }
+
+    /**
+     * Changes the policy that picks the car's next stop
+     *
+     * @param policy the new policy
+     */
+
+    public synchronized void setPolicy(DispatchPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the floor the car is currently on
+     *
+     * @return the current floor
+     */
+
+    public synchronized int getCurrentFloor() {
+        return this.currentFloor;
+    }
+
+    /**
+     * Returns the total number of floors the car has travelled
+     *
+     * @return the number of floors travelled
+     */
+
+    public synchronized int getFloorsTravelled() {
+        return this.floorsTravelled;
+    }
+
+    /**
+     * Returns the number of riders the car has picked up with ride()
+     *
+     * @return the number of riders
+     */
+
+    public synchronized long getRidersServed() {
+        return this.nRiders;
+    }
+
+    /**
+     * Returns the average wait of the riders picked up so far, measured in floors the car travelled between the call and the pickup
+     *
+     * @return the average wait, or 0 if nobody has ridden yet
+     */
+
+    public synchronized double getAverageWait() {
+        return (this.nRiders == 0) ? 0 : (double) this.totalWait / this.nRiders;
+    }
+
+    /**
+     * Returns the longest wait of any rider so far, measured in floors the car travelled between the call and the pickup
+     *
+     * @return the longest wait
+     */
+
+    public synchronized int getLongestWait() {
+        return this.longestWait;
+    }
+
+    /**
+     * Adds a floor to the car's pending requests
+     *
+     * @param floorNum the floor to stop at
+     */
+
+    public synchronized void request(int floorNum) {
+        this.requests.add(floorNum);
+    }
+
+    /**
+     * Moves the car to the next stop its policy picks and removes that stop from the pending requests
+     *
+     * @return the floor the car stopped at, or -1 if there are no pending requests
+     */
+
+    public synchronized int nextStop() {
+        if (this.requests.isEmpty()) {
+            return -1;
+        }
+        int next = this.policy.nextStop(this.currentFloor, this.goingUp, this.requests);
+        if (next != this.currentFloor) {
+            this.goingUp = next > this.currentFloor;
+        }
+        this.requests.remove(next);
+        this.floorsTravelled += Math.abs(next - this.currentFloor);
+        this.currentFloor = next;
+        this.lastStops.put(next, ++this.nStops);
+        this.notifyAll(); // riders waiting for this floor can get on or off
+        return next;
+    }
+
+    /**
+     * Serves every pending request
+     *
+     * @return the floors the car stopped at, in order
+     */
+
+    public synchronized ArrayList<Integer> dispatch() {
+        ArrayList<Integer> stops = new ArrayList<Integer>();
+        int stop;
+        while ((stop = this.nextStop()) != -1) {
+            stops.add(stop);
+        }
+        return stops;
+    }
+
+    /**
+     * Calls the car to a floor, rides it to each of the given floors, and returns once the last one has been reached
+     * Many riders can ride at once: each waiting rider moves the car one stop at a time and lets the others board between stops,
+     * so their calls and floors are served in the same sweep rather than one ride after another
+     *
+     * @param fromFloor the floor the rider calls the car from
+     * @param toFloors the floors the rider wants to stop at
+     * @return the rider's floors, in the order the car reached them
+     * @throws RuntimeException if the rider is interrupted while waiting for the car
+     */
+
+    public synchronized ArrayList<Integer> ride(int fromFloor, int... toFloors) {
+        int calledAt = this.floorsTravelled;
+        long since = this.nStops;
+        this.request(fromFloor);
+        this.awaitStop(fromFloor, since);
+        int wait = this.floorsTravelled - calledAt;
+        this.nRiders++;
+        this.totalWait += wait;
+        this.longestWait = Math.max(this.longestWait, wait);
+
+        since = this.nStops;
+        HashMap<Integer, Long> reachedAt = new HashMap<Integer, Long>();
+        for (int floorNum : toFloors) {
+            this.request(floorNum);
+            reachedAt.put(floorNum, 0L);
+        }
+        for (int floorNum : toFloors) {
+            this.awaitStop(floorNum, since);
+            // note when each of the rider's floors was first reached, since another rider may call the car back to it later
+            for (Integer other : reachedAt.keySet()) {
+                long stop = this.lastStops.getOrDefault(other, 0L);
+                if (reachedAt.get(other) == 0 && stop > since) {
+                    reachedAt.put(other, stop);
+                }
+            }
+        }
+        ArrayList<Integer> reached = new ArrayList<Integer>(reachedAt.keySet());
+        reached.sort((a, b) -> Long.compare(reachedAt.get(a), reachedAt.get(b)));
+        return reached;
+    }
+
+    /**
+     * Waits until the car has stopped at a floor after the given stop, moving the car itself whenever it is its turn
+     * The caller must hold the car's lock.
+     *
+     * @param floorNum the floor to wait for
+     * @param since the number of the last stop made before the floor was requested
+     */
+
+    private void awaitStop(int floorNum, long since) {
+        try {
+            while (this.lastStops.getOrDefault(floorNum, 0L) <= since) {
+                this.nextStop();
+                this.wait(DWELL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the elevator", e);
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+import java.io.PrintStream;
+
+/**
+ * An EventSink receives the messages that buildings, houses, libraries, cafes and campus maps report about what happens in them
+ * Building.setEventSink() picks the one sink they all report to: the console, a log file, nowhere, or a background thread (see AsyncEventSink)
+ */
+
+public interface EventSink {
+
+    /** A sink that drops every message; while it is installed, callers skip building their messages at all */
+    EventSink NONE = message -> { };
+
+    /**
+     * Records one message
+     *
+     * @param message the message to record
+     */
+
+    void report(String message);
+
+    /**
+     * Returns a sink that prints each message on its own line, e.g. to System.out or a log file
+     *
+     * @param out the stream to print to
+     * @return the sink
+     */
+
+    static EventSink printingTo(PrintStream out) {
+        return out::println;
+    }
+
+}
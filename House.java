@@ -1,4 +1,8 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A House class represents a Smith dorm building that can be lived in by students and may have a dining hall
@@ -7,17 +11,20 @@ import java.util.ArrayList;
 
 public class House extends Building {
 
-  private int nFloors;
-  private int activeFloor;
-  private boolean hasElevator;
-
-  /** The list of students who are currently residents of this house */
-  private ArrayList<String> residents;
+  /** The students who are currently residents of this house, in the order they moved in; its lock also covers campusMap */
+  private Set<String> residents;
 
   /** Whether or not this house has a dining room */
   private boolean hasDiningRoom;
 
-  private int roomsAvailable;
+  /** The number of empty rooms, reserved and released atomically so concurrent move-ins never overbook the house */
+  private AtomicInteger roomsAvailable;
+
+  /** Whether the number of rooms is limited; houses built without a room count take any number of residents */
+  private boolean hasRoomLimit;
+
+  /** The campus map this house has been added to, told about every move so it can find residents quickly, or null */
+  private volatile CampusMap campusMap;
 
   /**
    * Creates a new House object with the given name, address, number of floors, and dining room status
@@ -30,11 +37,11 @@ public class House extends Building {
    */
   public House(String name, String address, int nFloors, boolean hasDiningRoom, boolean hasElevator) {
     super(name, address, nFloors);
-    this.residents = new ArrayList<String>();
+    this.residents = Collections.synchronizedSet(new LinkedHashSet<String>());
     this.hasDiningRoom = hasDiningRoom;
-    this.nFloors = nFloors;
     this.hasElevator = hasElevator;
-    this.activeFloor = 1; // start on first floor by default
+    this.roomsAvailable = new AtomicInteger(Integer.MAX_VALUE); // no room limit
+    this.hasRoomLimit = false;
   }
 
   /**
@@ -50,12 +57,11 @@ public class House extends Building {
 
   public House(String name, String address, int nFloors, boolean hasDiningRoom, boolean hasElevator, int roomsAvailable) {
     super(name, address, nFloors);
-    this.residents = new ArrayList<String>();
+    this.residents = Collections.synchronizedSet(new LinkedHashSet<String>());
     this.hasDiningRoom = hasDiningRoom;
-    this.nFloors = nFloors;
     this.hasElevator = hasElevator;
-    this.activeFloor = 1; // start on first floor by default
-    this.roomsAvailable = roomsAvailable;
+    this.roomsAvailable = new AtomicInteger(roomsAvailable);
+    this.hasRoomLimit = true;
   }
 
 /**
@@ -76,33 +82,195 @@ public class House extends Building {
     return this.residents.size();
   }
 
+  /**
+   * Returns the campus map this house has been added to
+   *
+   * @return the campus map, or null if the house is not on one
+   */
+  public CampusMap getCampusMap() {
+    return this.campusMap;
+  }
+
+  /**
+   * Puts this house on a campus map, taking it off any map it was on, and tells the map who lives here.
+   * Runs under the roster's lock, so no move-in or move-out can slip between the roster and the map.
+   *
+   * @param map the campus map the house was added to
+   * @throws RuntimeException if one of the residents already lives in another house on the map; the house then stays where it was
+   */
+  void joinCampusMap(CampusMap map) {
+    synchronized (this.residents) {
+      ArrayList<String> claimed = new ArrayList<String>();
+      try {
+        for (String resident : this.residents) {
+          map.residentMovedIn(resident, this);
+          claimed.add(resident);
+        }
+      } catch (RuntimeException e) {
+        for (String resident : claimed) {
+          map.residentMovedOut(resident, this);
+        }
+        throw e;
+      }
+      this.leaveCampusMap(this.campusMap);
+      this.campusMap = map;
+    }
+  }
+
+  /**
+   * Takes this house off a campus map, if it is on that map, and tells the map its residents no longer live there
+   *
+   * @param map the campus map the house was removed from
+   */
+  void leaveCampusMap(CampusMap map) {
+    synchronized (this.residents) {
+      if (map == null || this.campusMap != map) {
+        return;
+      }
+      for (String resident : this.residents) {
+        map.residentMovedOut(resident, this);
+      }
+      this.campusMap = null;
+    }
+  }
+
+  /**
+   * Returns whether this house has a limited number of rooms
+   *
+   * @return true if the house was built with a room count, false if it takes any number of residents
+   */
+  public boolean hasRoomLimit() {
+    return this.hasRoomLimit;
+  }
+
+  /**
+   * Returns the number of empty rooms in this house
+   *
+   * @return the number of rooms available
+   */
+  public int roomsAvailable() {
+    return this.roomsAvailable.get();
+  }
+
+  /**
+   * Returns the residents currently living in this house, in the order they moved in
+   *
+   * @return a copy of the list of residents
+   */
+  public ArrayList<String> getResidents() {
+    synchronized (this.residents) {
+      return new ArrayList<String>(this.residents);
+    }
+  }
+
   /**
    * Adds a new resident to this house
    *
    * @param name the name of the new resident
-   * @throws RuntimeException if the new resident is already a resident of this house
+   * @throws RuntimeException if the house is full, the new resident is already a resident of this house,
+   *                          or the house is on a campus map and the new resident already lives in another house on it
    */
   public void moveIn(String name) {
-    // check if this.residents contains name
-    if (this.residents.contains(name)) {
-      //   if so: throw and exception
-      throw new RuntimeException(name + " is already a resident of " + this.name);
+    if (!this.reserveRooms(1)) {
+      throw new RuntimeException("Sorry, there are no rooms available at " + this.name);
     }
-    // if not, add to roster
-    this.residents.add(name);
-    System.out.println(name + " has just moved into " + this.name + "! Go say hello :)");
+    synchronized (this.residents) {
+      // add to roster, unless this.residents already contains name
+      if (!this.residents.add(name)) {
+        //   if so: give the room back and throw an exception
+        this.releaseRooms(1);
+        throw new RuntimeException(name + " is already a resident of " + this.name);
+      }
+      if (this.campusMap != null) {
+        try {
+          this.campusMap.residentMovedIn(name, this);
+        } catch (RuntimeException e) {
+          this.residents.remove(name);
+          this.releaseRooms(1);
+          throw e;
+        }
+      }
+    }
+    log(() -> name + " has just moved into " + this.name + "! Go say hello :)");
   }
 
-
+  /**
+   * Moves a group of new residents, named name 1 through name n, into this house.
+   * Either the whole group moves in or, if there are not enough rooms or one of them already lives here, nobody does.
+   *
+   * @param name the name shared by the new residents
+   * @param nResidents the number of new residents
+   * @throws RuntimeException if the number of residents is not positive, there are not enough rooms,
+   *                          or one of the new residents is already a resident of this house,
+   *                          or of another house on the same campus map
+   */
 public void moveIn(String name, int nResidents) {
-    if (this.roomsAvailable < nResidents) {
+    if (nResidents < 1) {
+        throw new RuntimeException("Cannot move fewer than 1 resident into " + this.name + ".");
+    }
+    if (!this.reserveRooms(nResidents)) {
         throw new RuntimeException("Sorry, there are not enough rooms available at " + this.name);
     }
-    for (int i = 0; i < nResidents; i++) {
-        this.moveIn(name + " " + (i+1));
+    ArrayList<String> movedIn = new ArrayList<String>();
+    synchronized (this.residents) {
+        for (int i = 0; i < nResidents; i++) {
+            String resident = name + " " + (i+1);
+            if (!this.residents.add(resident)) {
+                this.residents.removeAll(movedIn);
+                this.releaseRooms(nResidents);
+                throw new RuntimeException(resident + " is already a resident of " + this.name);
+            }
+            movedIn.add(resident);
+        }
+        if (this.campusMap != null) {
+            ArrayList<String> claimed = new ArrayList<String>();
+            try {
+                for (String resident : movedIn) {
+                    this.campusMap.residentMovedIn(resident, this);
+                    claimed.add(resident);
+                }
+            } catch (RuntimeException e) {
+                for (String resident : claimed) {
+                    this.campusMap.residentMovedOut(resident, this);
+                }
+                this.residents.removeAll(movedIn);
+                this.releaseRooms(nResidents);
+                throw e;
+            }
+        }
+    }
+    for (String resident : movedIn) {
+        log(() -> resident + " has just moved into " + this.name + "! Go say hello :)");
     }
 }
 
+  /**
+   * Atomically reserves rooms in this house, either all of them or none
+   *
+   * @param nRooms the number of rooms to reserve
+   * @return true if the rooms were reserved, false if there were not enough available
+   */
+  private boolean reserveRooms(int nRooms) {
+    while (true) {
+      int available = this.roomsAvailable.get();
+      if (available < nRooms) {
+        return false;
+      }
+      if (this.roomsAvailable.compareAndSet(available, available - nRooms)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives reserved rooms back to this house
+   *
+   * @param nRooms the number of rooms to release
+   */
+  private void releaseRooms(int nRooms) {
+    this.roomsAvailable.addAndGet(nRooms);
+  }
+
   /**
    * Removes a resident from this house
    *
@@ -111,11 +279,16 @@ public void moveIn(String name, int nResidents) {
    */
 
   public void moveOut(String name) {
-    if (!this.residents.contains(name)) {
-        throw new RuntimeException(name + " is not a resident of " + this.name);
+    synchronized (this.residents) {
+      if (!this.residents.remove(name)) {
+          throw new RuntimeException(name + " is not a resident of " + this.name);
+      }
+      this.releaseRooms(1);
+      if (this.campusMap != null) {
+        this.campusMap.residentMovedOut(name, this);
+      }
     }
-    this.residents.remove(name);
-    System.out.println(name + " has moved out of " + this.name + ". Go say goodbye :(");
+    log(() -> name + " has moved out of " + this.name + ". Go say goodbye :(");
 }
 
   /**
@@ -129,28 +302,22 @@ public void moveIn(String name, int nResidents) {
   }  
 
   /**
-   * Moves the user to the specified floor within the house
-   * @param floorNum the floor number to move to
-   * @throws RuntimeException if the user has not entered the house yet, or if the floor number is invalid house does not have an elevator 
+   * Checks that a move between floors of the house is allowed
+   * @param fromFloor the floor the visitor is on
+   * @param toFloor the floor number to move to
+   * @throws RuntimeException if the floor number is invalid house does not have an elevator 
      *                           or if the resident is trying to move to a non-adjacent floor
    */
 
 @Override
-public void goToFloor(int floorNum) {
-  if (this.activeFloor == -1) {
-      throw new RuntimeException("You are not inside this house. Must call enter() before navigating between floors.");
-  }
-  if (floorNum < 1 || floorNum > this.nFloors) {
-      throw new RuntimeException("Invalid floor number. Valid range for this house is 1-" + this.nFloors +".");
-  }
-  if (floorNum != 1 && !hasElevator) {
+protected void checkFloorChange(int fromFloor, int toFloor) {
+  super.checkFloorChange(fromFloor, toFloor);
+  if (toFloor != 1 && !hasElevator) {
       throw new RuntimeException("This house does not have an elevator. You cannot move between non-adjacent floors.");
   }
-  if (!hasElevator && Math.abs(this.activeFloor - floorNum) > 1) {
-      throw new RuntimeException("You cannot move between non-adjacent floors without using the elevator. activeFloor = " + this.activeFloor + ", floorNum = " + floorNum);
+  if (!hasElevator && Math.abs(fromFloor - toFloor) > 1) {
+      throw new RuntimeException("You cannot move between non-adjacent floors without using the elevator. activeFloor = " + fromFloor + ", floorNum = " + toFloor);
   }
-  System.out.println("You are now on floor #" + floorNum + " of this house.");
-  this.activeFloor = floorNum;
 }
 
   /**
@@ -172,16 +339,16 @@ public void showOptions() {
    * @return a String describing the house
    */
   public String toString() {
-    String description = super.toString();
-    description += " There are currently " + this.nResidents() + " people living in this house.";
-    description += " This house ";
+    StringBuilder description = new StringBuilder(super.toString());
+    description.append(" There are currently ").append(this.nResidents()).append(" people living in this house.");
+    description.append(" This house ");
     if (this.hasDiningRoom) {
-      description += "has";
+      description.append("has");
     } else {
-      description += "does not have";
+      description.append("does not have");
     }
-    description += " an active dining room.";
-    return description;
+    description.append(" an active dining room.");
+    return description.toString();
   }
 
   public static void main(String[] args) {
@@ -198,10 +365,12 @@ public void showOptions() {
     morrow.showOptions();
 
     
+    morrow.enter();
     morrow.goToFloor(1);
     morrow.goToFloor(3); // should work with elevator
     morrow.goToFloor(2); // should work with elevator
     morrow.goToFloor(1);
+    morrow.exit();
     
   
 
@@ -213,6 +382,36 @@ public void showOptions() {
     // Check if Alice is a resident of Morrow
     System.out.println("Is Jordan a resident of Morrow? " + morrow.isResident("Jordan"));
 
+    // Move students into a small house from many threads at once; it must never take more residents than it has rooms
+    House cutter = new House("Cutter", "79 Elm Street", 4, true, true, 50);
+    Building.setEventLog(null);
+    Thread[] movers = new Thread[8];
+    for (int i = 0; i < movers.length; i++) {
+      String group = "Student " + (char) ('A' + i);
+      movers[i] = new Thread(() -> {
+        for (int j = 0; j < 20; j++) {
+          try {
+            cutter.moveIn(group + j);
+          } catch (RuntimeException e) {
+            // the house is full
+          }
+        }
+      });
+      movers[i].start();
+    }
+    try {
+      for (Thread mover : movers) {
+        mover.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Stress test was interrupted", e);
+    }
+    Building.setEventLog(System.out);
+    if (cutter.nResidents() != 50 || cutter.roomsAvailable() != 0) {
+      throw new RuntimeException("Stress test failed: " + cutter.nResidents() + " residents and " + cutter.roomsAvailable() + " rooms left in a 50-room house.");
+    }
+    System.out.println("Stress test passed: 160 students tried to move into " + cutter.getName() + " and exactly 50 got rooms.");
+
 
      
   
@@ -0,0 +1,79 @@
+/**
+ * The HousingPreference class records where a student would like to live
+ * CampusMap uses these preferences to place students in its houses
+ */
+
+public class HousingPreference {
+
+    /** The name of the student */
+    private final String student;
+
+    /** The name of the house the student would most like to live in, or null if they have no favorite */
+    private final String preferredHouse;
+
+    /** Whether or not the student wants to live in a house with a dining room */
+    private final boolean wantsDiningRoom;
+
+    /** Whether or not the student needs a house with an elevator */
+    private final boolean needsElevator;
+
+    /**
+     * Creates a new HousingPreference for a student with no favorite house
+     *
+     * @param student the name of the student
+     * @param wantsDiningRoom whether or not the student wants a house with a dining room
+     * @param needsElevator whether or not the student needs a house with an elevator
+     */
+
+    public HousingPreference(String student, boolean wantsDiningRoom, boolean needsElevator) {
+        this(student, null, wantsDiningRoom, needsElevator);
+    }
+
+    /**
+     * Creates a new HousingPreference for a student with a favorite house
+     *
+     * @param student the name of the student
+     * @param preferredHouse the name of the house the student would most like to live in
+     * @param wantsDiningRoom whether or not the student wants a house with a dining room
+     * @param needsElevator whether or not the student needs a house with an elevator
+     */
+
+    public HousingPreference(String student, String preferredHouse, boolean wantsDiningRoom, boolean needsElevator) {
+        this.student = student;
+        this.preferredHouse = preferredHouse;
+        this.wantsDiningRoom = wantsDiningRoom;
+        this.needsElevator = needsElevator;
+    }
+
+    /**
+     * Returns the name of the student
+     *
+     * @return the name of the student
+     */
+
+    public String getStudent() {
+        return this.student;
+    }
+
+    /**
+     * Returns the name of the house the student would most like to live in
+     *
+     * @return the name of the preferred house, or null if the student has no favorite
+     */
+
+    public String getPreferredHouse() {
+        return this.preferredHouse;
+    }
+
+    /**
+     * Checks whether a house meets this student's requirements
+     *
+     * @param house the house to check
+     * @return true if the house has a dining room and an elevator wherever the student asked for one
+     */
+
+    public boolean isSuitable(House house) {
+        return (!this.wantsDiningRoom || house.hasDiningRoom()) && (!this.needsElevator || house.hasElevator());
+    }
+
+}
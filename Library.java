@@ -1,4 +1,31 @@
-import java.util.Hashtable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The Library class stores and manages a collection of books
@@ -7,13 +34,54 @@ import java.util.Hashtable;
 
 public class Library extends Building {
 
-    private boolean hasElevator;
+    /**
+     * A ConcurrentHashMap that stores a collection of books along with the copies of each and the patrons waiting for them.
+     * Each book's Holding is also the lock for changes to that book, so two patrons can never check out the same copy at once,
+     * while patrons borrowing different books never wait for each other.
+     */
+
+    private ConcurrentHashMap<Book, Holding> collection;
+
+    /** Index of the collection by packed ISBN (see Book.packIsbn()), for books that have one; no two books share an ISBN */
+    private ConcurrentHashMap<Long, Book> booksByIsbn;
 
     /**
-     * A Hashtable that stores a collection of books as well as their availability status
+     * Index of the collection by normalized title (see normalize()), in the order the books were added, since editions may share a title.
+     * Almost every title has a single edition, so the sets are small copy-on-write arrays rather than hash sets.
      */
 
-    private Hashtable<String, Boolean> collection;
+    private ConcurrentHashMap<String, Set<Book>> booksByTitle;
+
+    /** Index of the collection by normalized author, for books that have one */
+    private ConcurrentHashMap<String, Set<Book>> booksByAuthor;
+
+    /** Normalized titles kept in sorted order, so a title prefix maps to one contiguous range; shares its sets with booksByTitle */
+    private ConcurrentSkipListMap<String, Set<Book>> titlesInOrder;
+
+    /** Inverted index from each word of a title or author name to the books that contain it */
+    private ConcurrentHashMap<String, Set<Book>> booksByKeyword;
+
+    /** The number of copies in the collection that are currently available, kept in step with every status change */
+    private AtomicInteger nAvailable;
+
+    /** The journal that every change to the collection is appended to, or null if the collection is not being saved */
+    private volatile BufferedWriter journal;
+
+    /** The file the journal writes to, forced to disk after every group of records so a commit survives a crash */
+    private FileChannel journalChannel;
+
+    /**
+     * Journal records waiting to be written. A record is queued while its book's Holding is locked,
+     * so the records for any one book are queued in the order the changes were made.
+     */
+
+    private ConcurrentLinkedQueue<String> pendingRecords;
+
+    /** Held by whichever thread is writing pending records to the journal; the others leave their records for it */
+    private ReentrantLock journalLock;
+
+    /** The number of books addTitles() adds before it writes their journal records out together */
+    private static final int IMPORT_CHUNK = 4096;
 
     /**
      * Constructor for the Library class
@@ -25,10 +93,96 @@ public class Library extends Building {
 
     public Library(String name, String address, int nFloors, boolean hasElevator) {
         super(name, address, nFloors);
-        collection = new Hashtable<String, Boolean>();
+        collection = new ConcurrentHashMap<Book, Holding>();
+        booksByIsbn = new ConcurrentHashMap<Long, Book>();
+        booksByTitle = new ConcurrentHashMap<String, Set<Book>>();
+        booksByAuthor = new ConcurrentHashMap<String, Set<Book>>();
+        titlesInOrder = new ConcurrentSkipListMap<String, Set<Book>>();
+        booksByKeyword = new ConcurrentHashMap<String, Set<Book>>();
+        nAvailable = new AtomicInteger();
+        pendingRecords = new ConcurrentLinkedQueue<String>();
+        journalLock = new ReentrantLock();
         this.hasElevator = hasElevator;
     }
 
+    /**
+     * Normalizes a title or author name for use as an index key, so that
+     * differences in case and surrounding whitespace do not matter
+     *
+     * @param s  the title or author name
+     * @return   the normalized key
+     */
+
+    private static String normalize(String s) {
+        return s.trim().toLowerCase();
+    }
+
+    /**
+     * Splits a title or author name into the normalized words used by the keyword index
+     *
+     * @param s  the title or author name
+     * @return   the words, lower-cased and with punctuation removed
+     */
+
+    private static String[] keywords(String s) {
+        String normalized = normalize(s);
+        return normalized.isEmpty() ? new String[0] : normalized.split("[^a-z0-9]+");
+    }
+
+    /**
+     * Adds or removes a book under every word of its title and author in the keyword index
+     *
+     * @param book  the book to index
+     * @param add   true to add the book, false to remove it
+     */
+
+    private void indexKeywords(Book book, boolean add) {
+        String text = (book.getAuthor() == null) ? book.getTitle() : book.getTitle() + " " + book.getAuthor();
+        for (String word : keywords(text)) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (add) {
+                addToIndex(booksByKeyword, word, book);
+            } else {
+                removeFromIndex(booksByKeyword, word, book);
+            }
+        }
+    }
+
+    /**
+     * Adds a book to the set kept under a key of a multi-valued index, creating the set if needed
+     *
+     * @param index  the index
+     * @param key    the key
+     * @param book   the book to add
+     */
+
+    private static void addToIndex(ConcurrentHashMap<String, Set<Book>> index, String key, Book book) {
+        index.compute(key, (k, books) -> {
+            if (books == null) {
+                books = ConcurrentHashMap.newKeySet(1);
+            }
+            books.add(book);
+            return books;
+        });
+    }
+
+    /**
+     * Removes a book from the set kept under a key of a multi-valued index, dropping the set once it is empty
+     *
+     * @param index  the index
+     * @param key    the key
+     * @param book   the book to remove
+     */
+
+    private static void removeFromIndex(ConcurrentHashMap<String, Set<Book>> index, String key, Book book) {
+        index.computeIfPresent(key, (k, books) -> {
+            books.remove(book);
+            return books.isEmpty() ? null : books;
+        });
+    }
+
     /**
      * Adds a new book to the library's collection
      *
@@ -36,12 +190,7 @@ public class Library extends Building {
      */
 
      public void addTitle(String title) {
-        if (collection.containsKey(title)) {
-            System.out.println(title + " is already in the collection.");
-        } else {
-            collection.put(title, true);
-            System.out.println("Added " + title + " to the collection.");
-        }
+        addBook(new Book(title, null, null));
     }
 
     /**
@@ -52,13 +201,7 @@ public class Library extends Building {
     */
     
     public void addTitle(String title, String author) {
-        String bookInfo = title + " by " + author;
-        if (collection.containsKey(bookInfo)) {
-            System.out.println(bookInfo + " is already in the collection.");
-        } else {
-            collection.put(bookInfo, true);
-            System.out.println("Added " + bookInfo + " to the collection.");
-        }
+        addBook(new Book(title, author, null));
     }
 
     /**
@@ -66,68 +209,489 @@ public class Library extends Building {
     @param title the title of the book to be added
     @param author the author of the book to be added
     @param isbn the isbn number of the book
+    @throws RuntimeException if the ISBN is not valid
     */
 
     public void addTitle(String title, String author, String isbn) {
-        String bookInfo = title + " by " + author + " (ISBN: " + isbn + ")";
-        if (collection.containsKey(bookInfo)) {
-            System.out.println(bookInfo + " is already in the collection.");
+        addBook(new Book(title, author, isbn));
+    }
+
+    /**
+     * Adds a book to the collection and prints whether it was added
+     *
+     * @param book  the book to add
+     */
+
+    private void addBook(Book book) {
+        String problem = indexBook(book, 1, 1);
+        if (problem != null) {
+            log(problem);
         } else {
-            collection.put(bookInfo, true);
-            System.out.println("Added " + bookInfo + " to the collection.");
+            journalAdd(book);
+            commitJournal();
+            log(() -> "Added " + book + " to the collection.");
+        }
+    }
+
+    /**
+     * Adds a book to the collection and to every index that applies to it, without printing anything.
+     * A book is rejected if its ISBN is already in the collection, or, for a book without an ISBN,
+     * if a book with the same title and author and no ISBN is.
+     *
+     * @param book       the book to add
+     * @param available  the number of copies that are available
+     * @param copies     the total number of copies the library owns
+     * @return           null if the book was added, otherwise a message explaining why it was rejected
+     */
+
+    private String indexBook(Book book, int available, int copies) {
+        if (book.getIsbn() != null && booksByIsbn.putIfAbsent(book.getPackedIsbn(), book) != null) {
+            return "A book with ISBN " + book.getIsbn() + " is already in the collection.";
+        }
+        String titleKey = normalize(book.getTitle());
+        boolean[] added = new boolean[1];
+        booksByTitle.compute(titleKey, (key, books) -> {
+            if (books == null) {
+                books = new CopyOnWriteArraySet<Book>();
+            }
+            if (book.getIsbn() != null || sameEdition(books, book) == null) {
+                added[0] = books.add(book);
+                titlesInOrder.put(key, books);
+            }
+            return books;
+        });
+        if (!added[0]) {
+            return book + " is already in the collection.";
+        }
+        if (book.getAuthor() != null) {
+            addToIndex(booksByAuthor, normalize(book.getAuthor()), book);
+        }
+        indexKeywords(book, true);
+        collection.put(book, new Holding(available, copies));
+        nAvailable.addAndGet(available);
+        return null;
+    }
+    
+    /**
+     * Finds the book without an ISBN that has the same title and author as the given one
+     *
+     * @param books  the books sharing the title
+     * @param book   the book to match
+     * @return       the matching book in the collection, or null if there is none
+     */
+
+    private static Book sameEdition(Set<Book> books, Book book) {
+        String author = (book.getAuthor() == null) ? null : normalize(book.getAuthor());
+        for (Book other : books) {
+            String otherAuthor = (other.getAuthor() == null) ? null : normalize(other.getAuthor());
+            if (other.getIsbn() == null && (author == null ? otherAuthor == null : author.equals(otherAuthor))) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the book in the collection that a journal record refers to, by its ISBN or else by its title and author
+     *
+     * @param book  a book with the same title, author and ISBN
+     * @return      the book in the collection, or null if it is not there
+     */
+
+    private Book findBook(Book book) {
+        if (book.getIsbn() != null) {
+            return booksByIsbn.get(book.getPackedIsbn());
+        }
+        Set<Book> books = booksByTitle.get(normalize(book.getTitle()));
+        return (books == null) ? null : sameEdition(books, book);
+    }
+
+    /**
+     * Adds every book listed in a CSV file to the collection, printing one summary line instead of one line per book.
+     * Each line holds a title, optionally followed by an author and an ISBN; fields containing commas may be double-quoted.
+     *
+     * @param filename  the CSV file to read
+     * @return          the number of books added
+     * @throws RuntimeException if the file cannot be read
+     */
+
+    public int addTitles(String filename) {
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            return addTitles(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read titles from " + filename, e);
+        }
+    }
+
+    /**
+     * Adds every book listed in a CSV stream to the collection, printing one summary line instead of one line per book.
+     * Lines are read one at a time, so the whole feed never has to fit in memory, and the journal records of the books
+     * added are written and forced to disk once per IMPORT_CHUNK books rather than once per book.
+     * A line with a missing title or an invalid ISBN is counted as rejected and the rest of the feed is still read.
+     *
+     * @param in  the CSV stream to read
+     * @return    the number of books added
+     * @throws RuntimeException if the stream cannot be read
+     */
+
+    public int addTitles(InputStream in) {
+        int nAdded = 0;
+        int nDuplicates = 0;
+        int nRejected = 0;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = parseCsvLine(line);
+                Book book;
+                try {
+                    book = new Book(fields[0], (fields.length > 1 && !fields[1].isEmpty()) ? fields[1] : null,
+                        (fields.length > 2 && !fields[2].isEmpty()) ? fields[2] : null);
+                } catch (RuntimeException e) {
+                    nRejected++;
+                    continue;
+                }
+                if (indexBook(book, 1, 1) == null) {
+                    journalAdd(book);
+                    if (++nAdded % IMPORT_CHUNK == 0) {
+                        commitJournal();
+                    }
+                } else {
+                    nDuplicates++;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read titles", e);
+        } finally {
+            commitJournal();
+        }
+        log("Added " + nAdded + " titles to the collection (" + nDuplicates + " duplicates skipped, " + nRejected + " invalid lines rejected).");
+        return nAdded;
+    }
+
+    /**
+     * Splits one CSV line into its trimmed fields, honoring double-quoted fields and "" escapes inside them
+     *
+     * @param line  the line to split
+     * @return      the fields of the line
+     */
+
+    private static String[] parseCsvLine(String line) {
+        ArrayList<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
         }
+        fields.add(field.toString().trim());
+        return fields.toArray(new String[0]);
     }
     
   /**
-     * Removes a book from the library's collection
+     * Removes a book from the library's collection.
+     * If several editions share the title, the one added first is removed.
      *
      * @param title  the title of the book removed
      * @return       the title of the book removed, or null if the book was not found in the collection
      */
   
   public String removeTitle(String title) {
-      if (!collection.containsKey(title)) {
-          System.out.println(title + " is not in the collection.");
+      Book book = getBook(title);
+      if (book == null || !unindexBook(book)) {
+          log(() -> title + " is not in the collection.");
           return null;
-      } else {
-          collection.remove(title);
-          System.out.println("Removed " + title + " from the collection.");
-          return title;
       }
+      commitJournal();
+      log(() -> "Removed " + book.getTitle() + " from the collection.");
+      return book.getTitle();
   }
 
+    /**
+     * Removes a book from the collection and from every index, and queues the record of its removal, without printing anything
+     *
+     * @param book  the book to remove
+     * @return      true if the book was removed, false if it was not in the collection
+     */
+
+    private boolean unindexBook(Book book) {
+        Holding holding = collection.remove(book);
+        if (holding == null) {
+            return false;
+        }
+        synchronized (holding) {
+            nAvailable.addAndGet(-holding.available);
+            holding.available = 0;
+            holding.copies = 0;
+            writeJournal(record("REMOVE", book));
+            if (holding.holds != null) {
+                for (Hold hold : holding.holds) {
+                    hold.ready.completeExceptionally(new RuntimeException(book.getTitle() + " was removed from the collection."));
+                }
+                holding.holds = null;
+            }
+        }
+        booksByTitle.computeIfPresent(normalize(book.getTitle()), (key, books) -> {
+            books.remove(book);
+            if (books.isEmpty()) {
+                titlesInOrder.remove(key, books);
+                return null;
+            }
+            return books;
+        });
+        indexKeywords(book, false);
+        if (book.getIsbn() != null) {
+            booksByIsbn.remove(book.getPackedIsbn(), book);
+        }
+        if (book.getAuthor() != null) {
+            removeFromIndex(booksByAuthor, normalize(book.getAuthor()), book);
+        }
+        return true;
+    }
+
   /**
-     * Checks out a book from the library's collection
+     * Checks out a book from the library's collection, taking a copy of whichever edition with that title is available
      *
      * @param title  the title of the book checked out
+     * @return       true if a copy was checked out, false if none was available or the book is not in the collection
      */
   
-  public void checkOut(String title) {
-      if (!collection.containsKey(title)) {
-          System.out.println(title + " is not in the collection.");
-      } else if (!collection.get(title)) {
-          System.out.println(title + " is already checked out.");
-      } else {
-          collection.put(title, false);
-          System.out.println("Checked out " + title + ".");
+  public boolean checkOut(String title) {
+      ArrayList<Book> books = findByTitle(title);
+      if (books.isEmpty()) {
+          log(() -> title + " is not in the collection.");
+          return false;
+      }
+      for (Book book : books) {
+          Holding holding = collection.get(book);
+          if (holding == null) {
+              continue;
+          }
+          synchronized (holding) {
+              if (!takeCopy(holding)) {
+                  continue;
+              }
+              journalState(book, holding);
+          }
+          commitJournal();
+          log(() -> "Checked out " + book.getTitle() + ".");
+          return true;
       }
+      log(() -> books.get(0).getTitle() + " is already checked out.");
+      return false;
   }
 
   /**
-     * Returns a book to the library's collection
+     * Returns a book to the library's collection.
+     * If a patron has placed a hold on the book, the copy goes straight to the first patron in line instead of back on the shelf.
      *
      * @param title  the title of the book returned
      */
   
   public void returnBook(String title) {
-      if (!collection.containsKey(title)) {
-          System.out.println(title + " is not in the collection.");
-      } else if (collection.get(title)) {
-          System.out.println(title + " is already available.");
-      } else {
-          collection.put(title, true);
-          System.out.println("Returned " + title + ".");
+      ArrayList<Book> books = findByTitle(title);
+      if (books.isEmpty()) {
+          log(() -> title + " is not in the collection.");
+          return;
       }
+      for (Book book : books) {
+          Holding holding = collection.get(book);
+          if (holding == null) {
+              continue;
+          }
+          Hold next;
+          synchronized (holding) {
+              next = nextHold(holding);
+              if (next == null) {
+                  if (!putBackCopy(holding)) {
+                      continue;
+                  }
+                  journalState(book, holding);
+              }
+          }
+          Hold passedTo = passOn(book, holding, next);
+          if (passedTo == null) {
+              log(() -> "Returned " + book.getTitle() + ".");
+          } else {
+              log(() -> "Returned " + book.getTitle() + " and passed it on to " + passedTo.patron + ".");
+          }
+          return;
+      }
+      log(() -> books.get(0).getTitle() + " is already available.");
+    }
+
+    /**
+     * Adds more copies of a book that is already in the collection, handing them to waiting patrons first
+     *
+     * @param title    the title of the book
+     * @param nCopies  the number of copies to add
+     * @throws RuntimeException if the number of copies is not positive
+     */
+
+    public void addCopies(String title, int nCopies) {
+        if (nCopies < 1) {
+            throw new RuntimeException("Cannot add fewer than 1 copy of " + title + ".");
+        }
+        Book book = getBook(title);
+        Holding holding = (book == null) ? null : this.collection.get(book);
+        if (holding == null) {
+            log(() -> title + " is not in the collection.");
+            return;
+        }
+        ArrayList<Hold> served = new ArrayList<Hold>();
+        synchronized (holding) {
+            if (holding.copies == 0) {
+                log(() -> title + " is not in the collection.");
+                return;
+            }
+            holding.copies += nCopies;
+            Hold next;
+            while (served.size() < nCopies && (next = nextHold(holding)) != null) {
+                served.add(next);
+            }
+            int shelved = nCopies - served.size();
+            holding.available += shelved;
+            this.nAvailable.addAndGet(shelved);
+            journalState(book, holding);
+        }
+        commitJournal();
+        log(() -> "Added " + nCopies + " copies of " + book.getTitle() + " to the collection.");
+        for (Hold hold : served) {
+            passOn(book, holding, hold);
+        }
+    }
+
+    /**
+     * Takes the first patron off a book's hold queue, dropping the queue once nobody is left in it.
+     * The caller must hold the holding's lock.
+     *
+     * @param holding  the book's holding
+     * @return         the first hold in line, or null if nobody is waiting
+     */
+
+    private static Hold nextHold(Holding holding) {
+        if (holding.holds == null) {
+            return null;
+        }
+        Hold next = holding.holds.poll();
+        if (holding.holds.isEmpty()) {
+            holding.holds = null; // nobody is waiting any more
+        }
+        return next;
+    }
+
+    /**
+     * Hands a copy that was taken off a hold queue to its patron.
+     * A patron may have cancelled their hold's future meanwhile, so if they cannot take the copy it goes to the next patron
+     * in line, or back on the shelf if nobody is left; a copy is never lost.
+     *
+     * @param book     the book
+     * @param holding  the book's holding
+     * @param hold     the hold the copy was taken for, or null if the copy already went back on the shelf
+     * @return         the hold whose patron got the copy, or null if it ended up on the shelf
+     */
+
+    private Hold passOn(Book book, Holding holding, Hold hold) {
+        while (hold != null && !hold.ready.complete(book)) {
+            synchronized (holding) {
+                hold = nextHold(holding);
+                if (hold == null && putBackCopy(holding)) {
+                    journalState(book, holding);
+                }
+            }
+        }
+        commitJournal();
+        return hold;
+    }
+
+    /**
+     * Places a hold on a book for a patron.
+     * If a copy is available the patron gets it right away; otherwise they wait in line and
+     * the returned future completes when returnBook() or addCopies() hands them a copy.
+     * Cancelling the future gives up the patron's place in line; the copy then goes to the next patron instead.
+     *
+     * @param title   the title of the book
+     * @param patron  the name of the patron placing the hold
+     * @return        a future that completes with the book once the patron has checked it out
+     */
+
+    public CompletableFuture<Book> placeHold(String title, String patron) {
+        Book book = getBook(title);
+        Holding holding = (book == null) ? null : this.collection.get(book);
+        if (holding == null) {
+            log(() -> title + " is not in the collection.");
+            return CompletableFuture.failedFuture(new RuntimeException(title + " is not in the collection."));
+        }
+        synchronized (holding) {
+            if (holding.copies == 0) {
+                log(() -> title + " is not in the collection.");
+                return CompletableFuture.failedFuture(new RuntimeException(title + " is not in the collection."));
+            }
+            if (!takeCopy(holding)) {
+                if (holding.holds == null) {
+                    holding.holds = new ArrayDeque<Hold>(2);
+                }
+                Hold hold = new Hold(patron);
+                holding.holds.add(hold);
+                log(() -> patron + " is number " + holding.holds.size() + " in line for " + book.getTitle() + ".");
+                return hold.ready;
+            }
+            journalState(book, holding);
+        }
+        commitJournal();
+        log(() -> "Checked out " + book.getTitle() + " to " + patron + ".");
+        return CompletableFuture.completedFuture(book);
+    }
+
+    /**
+     * Takes one available copy of a book off the shelf. The caller must hold the holding's lock.
+     *
+     * @param holding  the book's holding
+     * @return         true if a copy was taken, false if none were available
+     */
+
+    private boolean takeCopy(Holding holding) {
+        if (holding.available == 0) {
+            return false;
+        }
+        holding.available--;
+        this.nAvailable.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Puts one copy of a book back on the shelf, unless every copy is already there. The caller must hold the holding's lock.
+     *
+     * @param holding  the book's holding
+     * @return         true if a copy was put back, false if none were checked out
+     */
+
+    private boolean putBackCopy(Holding holding) {
+        if (holding.available >= holding.copies) {
+            return false;
+        }
+        holding.available++;
+        this.nAvailable.incrementAndGet();
+        return true;
     }
 
     /**
@@ -138,21 +702,175 @@ public class Library extends Building {
      */
 
   public boolean containsTitle(String title) {
-    return this.collection.containsKey(title);
+    return this.booksByTitle.containsKey(normalize(title));
 }
 
     /**
      * Checks whether a given book is available in the library's collection
      *
      * @param title  the title of the book to be checked for availability
-     * @return       true if the book is available, false if it is checked out or not in the collection
+     * @return       true if a copy of any edition with that title is available, false if they are all checked out or not in the collection
      */
     
     public boolean isAvailable(String title) {
-        if (!this.containsTitle(title)) {
-            return false;
+        for (Book book : findByTitle(title)) {
+            Holding holding = this.collection.get(book);
+            if (holding != null && holding.available > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of titles in the library's collection
+     *
+     * @return the number of titles
+     */
+
+    public int nTitles() {
+        return this.collection.size();
+    }
+
+    /**
+     * Returns the number of copies that are currently available, across all titles, without walking the collection
+     *
+     * @return the number of available copies
+     */
+
+    public int nAvailable() {
+        return this.nAvailable.get();
+    }
+
+    /**
+     * Looks up a book by its title, ignoring case and surrounding whitespace
+     *
+     * @param title  the title of the book
+     * @return       the matching book, or the one added first if several editions share the title, or null if it is not in the collection
+     */
+
+    public Book getBook(String title) {
+        Set<Book> books = this.booksByTitle.get(normalize(title));
+        if (books == null) {
+            return null;
         }
-        return this.collection.get(title);
+        for (Book book : books) {
+            return book;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up every edition of a book by its title, ignoring case and surrounding whitespace
+     *
+     * @param title  the title of the book
+     * @return       a list of the matching books in the order they were added, empty if there are none
+     */
+
+    public ArrayList<Book> findByTitle(String title) {
+        Set<Book> books = this.booksByTitle.get(normalize(title));
+        return (books == null) ? new ArrayList<Book>() : new ArrayList<Book>(books);
+    }
+
+    /**
+     * Looks up a book by its ISBN, ignoring hyphens and spaces
+     *
+     * @param isbn  the ISBN of the book
+     * @return      the matching book, or null if it is not in the collection or the ISBN is not valid
+     */
+
+    public Book findByIsbn(String isbn) {
+        long key;
+        try {
+            key = Book.packIsbn(isbn);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return this.booksByIsbn.get(key);
+    }
+
+    /**
+     * Looks up every book by the given author, ignoring case and surrounding whitespace
+     *
+     * @param author  the author of the books
+     * @return        a list of the matching books, empty if there are none
+     */
+
+    public ArrayList<Book> findByAuthor(String author) {
+        Set<Book> books = this.booksByAuthor.get(normalize(author));
+        return (books == null) ? new ArrayList<Book>() : new ArrayList<Book>(books);
+    }
+
+    /**
+     * Finds the books whose title starts with the given prefix, in alphabetical order
+     *
+     * @param prefix  the start of the title, ignoring case and surrounding whitespace
+     * @param offset  the number of matches to skip, for paging through results
+     * @param limit   the maximum number of matches to return
+     * @return        a list of at most limit matching books
+     */
+
+    public ArrayList<Book> searchByPrefix(String prefix, int offset, int limit) {
+        ArrayList<Book> results = new ArrayList<Book>();
+        String from = normalize(prefix);
+        for (Map.Entry<String, Set<Book>> entry : this.titlesInOrder.tailMap(from).entrySet()) {
+            if (!entry.getKey().startsWith(from)) {
+                break;
+            }
+            for (Book book : entry.getValue()) {
+                if (results.size() >= limit) {
+                    return results;
+                }
+                if (offset > 0) {
+                    offset--;
+                } else {
+                    results.add(book);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds the books whose title or author contains any word of the query.
+     * Books matching more of the query's words come first, and ties are broken alphabetically by title.
+     *
+     * @param query   the words to search for
+     * @param offset  the number of matches to skip, for paging through results; a negative offset counts as 0
+     * @param limit   the maximum number of matches to return
+     * @return        a list of at most limit matching books, empty if limit is not positive
+     */
+
+    public ArrayList<Book> searchByKeyword(String query, int offset, int limit) {
+        HashMap<Book, Integer> hits = new HashMap<Book, Integer>();
+        for (String word : keywords(query)) {
+            Set<Book> books = this.booksByKeyword.get(word);
+            if (books != null) {
+                for (Book book : books) {
+                    hits.merge(book, 1, Integer::sum);
+                }
+            }
+        }
+        int from = Math.max(offset, 0);
+        int to = (int) Math.min((long) from + Math.max(limit, 0), hits.size());
+        if (from >= to) {
+            return new ArrayList<Book>();
+        }
+        Comparator<Book> byRank = (a, b) -> {
+            int byHits = hits.get(b) - hits.get(a);
+            return (byHits != 0) ? byHits : a.getTitle().compareToIgnoreCase(b.getTitle());
+        };
+        // keep only the best "to" matches, with the worst of them on top, instead of sorting every match
+        PriorityQueue<Book> best = new PriorityQueue<Book>(to, byRank.reversed());
+        for (Book book : hits.keySet()) {
+            best.add(book);
+            if (best.size() > to) {
+                best.poll();
+            }
+        }
+        ArrayList<Book> ranked = new ArrayList<Book>(best);
+        ranked.sort(byRank);
+        return new ArrayList<Book>(ranked.subList(from, to));
     }
 
     /**
@@ -161,9 +879,422 @@ public class Library extends Building {
 
     public void printCollection() {
         System.out.println("Library Collection:");
-        for (String title : this.collection.keySet()) {
-            String status = (this.collection.get(title)) ? "Available" : "Checked Out";
-            System.out.println("- " + title + " (" + status + ")");
+        printCollection(System.out, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes one page of the collection, in alphabetical order by title, to the given output.
+     * A page starts right after the title the previous page ended on, so each page costs only the rows it writes
+     * however deep into the collection it is. Every edition of a title is written on the same page.
+     * The walk never locks the collection, so checkOut() and returnBook() can keep running while a long report is written,
+     * and each row reflects the book's status at the moment it is written.
+     *
+     * @param out     where to write the rows, e.g. System.out, a StringBuilder or a Writer
+     * @param after   the cursor returned for the previous page, or null to start from the first title
+     * @param limit   the maximum number of titles to write
+     * @return        the cursor to pass in for the next page, or null if this page reached the end of the collection
+     * @throws RuntimeException if the output cannot be written to
+     */
+
+    public String printCollection(Appendable out, String after, int limit) {
+        Map<String, Set<Book>> titles = (after == null) ? this.titlesInOrder : this.titlesInOrder.tailMap(after, false);
+        int nWritten = 0;
+        try {
+            for (Map.Entry<String, Set<Book>> entry : titles.entrySet()) {
+                if (nWritten >= limit) {
+                    return after;
+                }
+                for (Book book : entry.getValue()) {
+                    Holding holding = this.collection.get(book);
+                    if (holding == null) {
+                        continue; // removed while we were walking the collection
+                    }
+                    int available = holding.available;
+                    int copies = holding.copies;
+                    out.append("- ").append(book.toString()).append(" (");
+                    if (available == 0) {
+                        out.append("Checked Out");
+                    } else if (copies == 1) {
+                        out.append("Available");
+                    } else {
+                        out.append(String.valueOf(available)).append(" of ").append(String.valueOf(copies)).append(" Available");
+                    }
+                    out.append(")").append(System.lineSeparator());
+                }
+                after = entry.getKey();
+                nWritten++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the collection", e);
+        }
+        return null;
+    }
+
+    /**
+     * Saves a snapshot of the collection, including availability, to the given file.
+     * From then on every change is appended to a journal next to it (filename + ".journal"),
+     * so loadCollection() can restore the latest state without the snapshot being rewritten.
+     * Circulation keeps running while the snapshot is written: changes made meanwhile go to a new journal
+     * (filename + ".journal.next") that replaces the old one once the snapshot is in place, so nothing is lost
+     * and a crash at any point still leaves files that loadCollection() can recover from.
+     *
+     * @param filename  the file to save the snapshot to
+     * @throws RuntimeException if the snapshot or journal cannot be written
+     */
+
+    public synchronized void saveCollection(String filename) {
+        Path snapshotPath = Paths.get(filename);
+        Path journalPath = Paths.get(filename + ".journal");
+        Path nextJournalPath = Paths.get(filename + ".journal.next");
+        Path tempPath = Paths.get(filename + ".tmp");
+        switchJournal(null, nextJournalPath, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 BufferedWriter out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+                for (Map.Entry<Book, Holding> entry : this.collection.entrySet()) {
+                    Holding holding = entry.getValue();
+                    String[] record;
+                    synchronized (holding) {
+                        if (holding.copies == 0) {
+                            continue; // removed while we were walking the collection
+                        }
+                        record = bookRecord(entry.getKey(), holding.available, holding.copies);
+                    }
+                    out.write(String.join("\t", record));
+                    out.newLine();
+                }
+                out.flush();
+                channel.force(true); // the snapshot must be on disk before it replaces the old one
+            }
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not save the collection to " + filename, e);
+        }
+        switchJournal(nextJournalPath, journalPath, StandardOpenOption.APPEND);
+        commitJournal();
+    }
+
+    /**
+     * Loads a collection saved with saveCollection(), replaying its journal on top of the snapshot.
+     * Later changes keep being appended to the same journal.
+     * If an earlier save was interrupted, its unfinished journal is replayed as well and the save is completed.
+     *
+     * @param filename  the file the snapshot was saved to
+     * @throws RuntimeException if the snapshot or journal cannot be read
+     */
+
+    public synchronized void loadCollection(String filename) {
+        close();
+        replay(Paths.get(filename));
+        Path journalPath = Paths.get(filename + ".journal");
+        Path nextJournalPath = Paths.get(filename + ".journal.next");
+        if (Files.exists(journalPath)) {
+            replay(journalPath);
+        }
+        if (Files.exists(nextJournalPath)) {
+            replay(nextJournalPath);
+            saveCollection(filename);
+        } else {
+            switchJournal(null, journalPath, StandardOpenOption.APPEND);
+        }
+        log("Loaded " + this.collection.size() + " titles from " + filename + ".");
+    }
+
+    /**
+     * Writes any pending records and closes the journal, so later changes are no longer saved
+     *
+     * @throws RuntimeException if the journal cannot be written
+     */
+
+    public synchronized void close() {
+        this.journalLock.lock();
+        try {
+            drainJournal();
+            if (this.journal != null) {
+                this.journal.close();
+                this.journal = null;
+                this.journalChannel = null;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not close the journal", e);
+        } finally {
+            this.journalLock.unlock();
+        }
+    }
+
+    /**
+     * Applies every record in a snapshot or journal file to the collection.
+     * Records carry the book's resulting counts rather than the change, so replaying a record twice does no harm.
+     *
+     * @param path  the file to read records from
+     */
+
+    private void replay(Path path) {
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = unescape(fields[i]);
+                }
+                int n = fields.length;
+                Book book = new Book(fields[n - 3], fields[n - 2].isEmpty() ? null : fields[n - 2], fields[n - 1]);
+                if (fields[0].equals("ADD") && indexBook(book, Integer.parseInt(fields[1]), Integer.parseInt(fields[2])) == null) {
+                    continue;
+                }
+                book = findBook(book);
+                Holding holding = (book == null) ? null : collection.get(book);
+                if (holding == null) {
+                    continue;
+                } else if (fields[0].equals("REMOVE")) {
+                    unindexBook(book);
+                } else {
+                    synchronized (holding) {
+                        int available = Integer.parseInt(fields[1]);
+                        nAvailable.addAndGet(available - holding.available);
+                        holding.available = available;
+                        holding.copies = Integer.parseInt(fields[2]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the collection from " + path, e);
+        }
+    }
+
+    /**
+     * Writes everything pending to the current journal, closes it, and starts appending to another.
+     * If renameFrom is given, that file is first moved to the new journal's path.
+     *
+     * @param renameFrom  the file to move into place as the new journal, or null
+     * @param path        the new journal
+     * @param mode        whether to start the new journal fresh or append to it
+     */
+
+    private void switchJournal(Path renameFrom, Path path, StandardOpenOption mode) {
+        this.journalLock.lock();
+        try {
+            drainJournal();
+            if (this.journal != null) {
+                this.journal.close();
+            }
+            if (renameFrom != null) {
+                Files.move(renameFrom, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            this.journalChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode);
+            this.journal = new BufferedWriter(Channels.newWriter(this.journalChannel, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open the journal " + path, e);
+        } finally {
+            this.journalLock.unlock();
+        }
+    }
+
+    /**
+     * Queues one record for the journal, if the collection is being saved.
+     * Changes to a book must queue their record while holding the book's Holding lock, then call commitJournal() once it is released.
+     *
+     * @param fields  the fields of the record
+     */
+
+    private void writeJournal(String... fields) {
+        if (this.journal != null) {
+            this.pendingRecords.add(String.join("\t", fields));
+        }
+    }
+
+    /**
+     * Queues the record of a book's current counts. The caller must hold the holding's lock.
+     *
+     * @param book     the book
+     * @param holding  the book's holding
+     */
+
+    private void journalState(Book book, Holding holding) {
+        writeJournal(record("STATE", book, holding.available, holding.copies));
+    }
+
+    /**
+     * Queues the record that adds a book, carrying its counts at the moment the record is queued,
+     * so any change made to the book before then is already included
+     *
+     * @param book  the book that was just added
+     */
+
+    private void journalAdd(Book book) {
+        Holding holding = this.collection.get(book);
+        if (holding == null) {
+            return;
+        }
+        synchronized (holding) {
+            if (holding.copies > 0) {
+                writeJournal(bookRecord(book, holding.available, holding.copies));
+            }
+        }
+    }
+
+    /**
+     * Writes pending records to the journal, group-commit style: the thread that gets the journal lock writes and
+     * forces to disk every record queued so far in one go, and threads that find it busy leave their records for it.
+     *
+     * @throws RuntimeException if the journal cannot be written
+     */
+
+    private void commitJournal() {
+        while (!this.pendingRecords.isEmpty() && this.journalLock.tryLock()) {
+            try {
+                drainJournal();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not write to the journal", e);
+            } finally {
+                this.journalLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes every pending record and forces the journal to disk, so the records survive a crash. The caller must hold the journal lock.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+
+    private void drainJournal() throws IOException {
+        BufferedWriter out = this.journal;
+        String line;
+        while ((line = this.pendingRecords.poll()) != null) {
+            if (out != null) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+        if (out != null) {
+            out.flush();
+            this.journalChannel.force(false);
+        }
+    }
+
+    /**
+     * Builds the record that adds a book to a saved collection
+     *
+     * @param book       the book
+     * @param available  the number of copies that are available
+     * @param copies     the total number of copies the library owns
+     * @return           the fields of the record
+     */
+
+    private static String[] bookRecord(Book book, int available, int copies) {
+        return record("ADD", book, available, copies);
+    }
+
+    /**
+     * Builds a journal record about a book. The book's title, author and ISBN always come last, so replay() can find it again.
+     * They are escaped (see escape()), so a tab or line break inside one cannot split the record.
+     *
+     * @param type     the kind of record, e.g. "STATE"
+     * @param book     the book
+     * @param numbers  any counts the record carries, written before the book
+     * @return         the fields of the record
+     */
+
+    private static String[] record(String type, Book book, int... numbers) {
+        String[] fields = new String[numbers.length + 4];
+        fields[0] = type;
+        for (int i = 0; i < numbers.length; i++) {
+            fields[i + 1] = String.valueOf(numbers[i]);
+        }
+        fields[numbers.length + 1] = escape(book.getTitle());
+        fields[numbers.length + 2] = (book.getAuthor() == null) ? "" : escape(book.getAuthor());
+        fields[numbers.length + 3] = (book.getIsbn() == null) ? "" : escape(book.getIsbn());
+        return fields;
+    }
+
+    /**
+     * Escapes backslashes, tabs and line breaks in a record field, so the field stays on one line between two tabs
+     *
+     * @param field  the field
+     * @return       the escaped field
+     */
+
+    private static String escape(String field) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            String replacement = (c == '\\') ? "\\\\" : (c == '\t') ? "\\t" : (c == '\n') ? "\\n" : (c == '\r') ? "\\r" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return (escaped == null) ? field : escaped.toString();
+    }
+
+    /**
+     * Reverses escape()
+     *
+     * @param field  the escaped field
+     * @return       the original field
+     */
+
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder unescaped = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                c = (next == 't') ? '\t' : (next == 'n') ? '\n' : (next == 'r') ? '\r' : next;
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * The circulation state of one book in the collection.
+     * Fields only change while holding the Holding's lock; the counts are volatile so they can be read without it.
+     * A holding whose book has been removed has no copies.
+     */
+
+    private static class Holding {
+
+        /** The number of copies on the shelf */
+        private volatile int available;
+
+        /** The total number of copies the library owns, whether available or checked out */
+        private volatile int copies;
+
+        /** Patrons waiting for a copy, in the order they placed their holds, or null if nobody is waiting */
+        private ArrayDeque<Hold> holds;
+
+        private Holding(int available, int copies) {
+            this.available = available;
+            this.copies = copies;
+        }
+    }
+
+    /**
+     * A patron waiting for a copy of a book, and the future to complete once they have it
+     */
+
+    private static class Hold {
+
+        /** The name of the patron who placed the hold */
+        private final String patron;
+
+        /** Completes with the book once a copy has been checked out to the patron */
+        private final CompletableFuture<Book> ready;
+
+        private Hold(String patron) {
+            this.patron = patron;
+            this.ready = new CompletableFuture<Book>();
         }
     }
 
@@ -184,28 +1315,22 @@ public class Library extends Building {
     }
 
      /**
-   * Moves the user to the specified floor within the library
-   * @param floorNum the floor number to move to
-   * @throws RuntimeException if the user has not entered the library yet, or if the floor number is invalid library does not have an elevator 
+   * Checks that a move between floors of the library is allowed
+   * @param fromFloor the floor the visitor is on
+   * @param toFloor the floor number to move to
+   * @throws RuntimeException if the floor number is invalid, library does not have an elevator 
      *                           or if the student is trying to move to a non-adjacent floor
    */
 
     @Override
-    public void goToFloor(int floorNum) {
-        if (this.activeFloor == -1) {
-            throw new RuntimeException("You are not inside this library. Must call enter() before navigating between floors.");
-        }
-        if (floorNum < 1 || floorNum > this.nFloors) {
-            throw new RuntimeException("Invalid floor number. Valid range for this library is 1-" + this.nFloors +".");
-        }
-        if (floorNum != 1 && !hasElevator) {
+    protected void checkFloorChange(int fromFloor, int toFloor) {
+        super.checkFloorChange(fromFloor, toFloor);
+        if (toFloor != 1 && !hasElevator) {
             throw new RuntimeException("This library does not have an elevator. You cannot move between non-adjacent floors.");
         }
-        if (!hasElevator && Math.abs(this.activeFloor - floorNum) > 1) {
-            throw new RuntimeException("You cannot move between non-adjacent floors without using the elevator. activeFloor = " + this.activeFloor + ", floorNum = " + floorNum);
+        if (!hasElevator && Math.abs(fromFloor - toFloor) > 1) {
+            throw new RuntimeException("You cannot move between non-adjacent floors without using the elevator. activeFloor = " + fromFloor + ", floorNum = " + toFloor);
         }
-        System.out.println("You are now on floor #" + floorNum + " of this library.");
-        this.activeFloor = floorNum;
       }
 
     
@@ -215,13 +1340,23 @@ public class Library extends Building {
         System.out.println(library);
 
         // Add some books to the collection
-        library.addTitle("The Great Gatsby ", "F. Scott Fitzgerald ", "123456789");
+        library.addTitle("The Great Gatsby ", "F. Scott Fitzgerald ", "0-7432-7356-7");
         library.addTitle("The Song of Achilles by Madeline Miller");
         library.addTitle("The Vanishing Half by Brit Bennett");
         library.addTitle("Pride and Prejudice by Jane Austen");
 
         library.addTitle("The Great Gatsby");
-        library.addTitle("1984", "George Orwell", "123456789");
+        library.addTitle("1984", "George Orwell", "978-0-452-28423-4");
+        library.addTitle("Emma", "Jane Austen");
+        library.addTitle("Emma", "Emma Tennant"); // a different book with the same title
+
+        // Add several books at once from a CSV feed
+        String feed = "Beloved,Toni Morrison,978-1-4000-3341-6\n"
+            + "\"Love, Anger, Madness\",Marie Vieux-Chauvet\n"
+            + "1984,George Orwell,978-0-452-28423-4\n"
+            + "Middlemarch,George Eliot,not-an-isbn\n"
+            + "Mrs Dalloway,Virginia Woolf,978-0-15-662870-0\n";
+        library.addTitles(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)));
 
         
         // Print the entire collection
@@ -235,8 +1370,30 @@ public class Library extends Building {
         System.out.println("Contains 'The Song of Achilles by Madeline Miller': " + library.containsTitle("The Song of Achilles by Madeline Miller"));
   
         // Check if a title is available
-        System.out.println("Is 'The Great Gatsby by F. Scott Fitzgerald' available: " + library.isAvailable("The Great Gatsby by F. Scott Fitzgerald"));
+        System.out.println("Is 'The Great Gatsby' available: " + library.isAvailable("The Great Gatsby"));
+
+        // Look up books by ISBN and by author
+        System.out.println("ISBN 978-0-452-28423-4: " + library.findByIsbn("978-0-452-28423-4"));
+        System.out.println("ISBN 978-0-7432-7356-5: " + library.findByIsbn("978-0-7432-7356-5")); // the ISBN-13 form of the ISBN Gatsby was added with
+        System.out.println("Books by George Orwell: " + library.findByAuthor("george orwell"));
+        System.out.println("Books titled Emma: " + library.findByTitle("emma"));
+
+        // Search the collection by title prefix and by keyword
+        System.out.println("Titles starting with 'The': " + library.searchByPrefix("The", 0, 10));
+        System.out.println("Books matching 'austen pride': " + library.searchByKeyword("austen pride", 0, 10));
   
+        System.out.println(library.nAvailable() + " copies are available across " + library.nTitles() + " titles.");
+
+        // Print the collection three titles at a time
+        StringBuilder page = new StringBuilder();
+        String cursor = null;
+        int pageNumber = 0;
+        do {
+            page.setLength(0);
+            cursor = library.printCollection(page, cursor, 3);
+            System.out.print("Page " + (++pageNumber) + ":" + System.lineSeparator() + page);
+        } while (cursor != null);
+
         // Check out a book
         library.checkOut("The Vanishing Half by Brit Bennettl");
   
@@ -245,14 +1402,82 @@ public class Library extends Building {
         
         // Return a book
         library.returnBook("The Vanishing Half by Brit Bennett");
+
+        // Hold a popular title with several copies
+        library.addCopies("Beloved", 2);
+        library.checkOut("Beloved");
+        library.checkOut("Beloved");
+        library.checkOut("Beloved");
+        library.placeHold("Beloved", "Jordan").thenAccept(book -> System.out.println("Jordan picked up " + book.getTitle() + "."));
+        library.returnBook("Beloved");
         
         // Print the entire collection again to see updated status
         library.printCollection();
 
+        // Check out and return the same book from many threads at once; no copy may ever be lent twice
+        Library branch = new Library("Forbes Library", "20 West Street, Northampton MA", 2, false);
+        branch.addTitle("Beloved", "Toni Morrison");
+        branch.addCopies("Beloved", 2);
+        Building.setEventLog(null);
+        AtomicInteger nLent = new AtomicInteger();
+        AtomicInteger mostLent = new AtomicInteger();
+        Thread[] patrons = new Thread[8];
+        for (int i = 0; i < patrons.length; i++) {
+            patrons[i] = new Thread(() -> {
+                for (int j = 0; j < 20000; j++) {
+                    if (branch.checkOut("Beloved")) {
+                        mostLent.accumulateAndGet(nLent.incrementAndGet(), Math::max);
+                        nLent.decrementAndGet();
+                        branch.returnBook("Beloved");
+                    }
+                }
+            });
+            patrons[i].start();
+        }
+        try {
+            for (Thread patron : patrons) {
+                patron.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Stress test was interrupted", e);
+        }
+        Building.setEventLog(System.out);
+        if (mostLent.get() > 3 || branch.nAvailable() != 3) {
+            throw new RuntimeException("Stress test failed: " + mostLent + " copies lent at once, " + branch.nAvailable() + " of 3 back on the shelf.");
+        }
+        System.out.println("Stress test passed: at most " + mostLent + " of 3 copies of Beloved were ever out at once.");
+
         library.enter(); // enter the library to start at the ground floor
         library.goToFloor(3); // should output "You are now on floor #3 of Central Library"
         library.goToFloor(5); // should output "You are now on floor #5 of Central Library"
         library.goToFloor(2); // should output "You are now on floor #2 of Central Library"
+        library.takeElevator(5, 1, 4); // stops at 4 and 5 on the way up, then 1 on the way down
+
+        // Patrons calling the elevator at the same time share its sweeps rather than queueing for whole rides
+        Building.setEventLog(null);
+        Thread[] riders = new Thread[8];
+        for (int i = 0; i < riders.length; i++) {
+            String rider = "Rider " + i;
+            int floor = 2 + i % 4;
+            riders[i] = new Thread(() -> {
+                library.enter(rider);
+                library.takeElevator(rider, floor);
+                library.takeElevator(rider, 1);
+                library.exit(rider);
+            });
+            riders[i].start();
+        }
+        try {
+            for (Thread rider : riders) {
+                rider.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Elevator test was interrupted", e);
+        }
+        Building.setEventLog(System.out);
+        Elevator car = library.getElevator();
+        System.out.println("The elevator gave " + car.getRidersServed() + " rides in " + car.getFloorsTravelled() + " floors of travel; riders waited "
+                + String.format("%.1f", car.getAverageWait()) + " floors on average and " + car.getLongestWait() + " at most.");
         library.exit(); // exit the library to end the program
       }
     }
@@ -0,0 +1,59 @@
+import java.util.List;
+
+/**
+ * The LocalCampusShard class is a CampusShard held in the same process as its coordinator
+ * Every call goes straight to a CampusMap, with no copying or transport in between
+ */
+
+public class LocalCampusShard implements CampusShard {
+
+    /** The map that holds this shard's buildings */
+    private final CampusMap map;
+
+    /**
+     * Creates a new LocalCampusShard with an empty map
+     */
+
+    public LocalCampusShard() {
+        this(new CampusMap());
+    }
+
+    /**
+     * Creates a new LocalCampusShard that serves the given map
+     *
+     * @param map the map that holds the shard's buildings
+     */
+
+    public LocalCampusShard(CampusMap map) {
+        this.map = map;
+    }
+
+    public void addBuilding(Building b) {
+        this.map.addBuilding(b);
+    }
+
+    public Building removeBuilding(Building b) {
+        return this.map.removeBuilding(b);
+    }
+
+    public Building getBuilding(String name) {
+        return this.map.getBuilding(name);
+    }
+
+    public <T extends Building> List<T> getBuildings(Class<T> type) {
+        return this.map.getBuildings(type);
+    }
+
+    public int countBuildings(Class<? extends Building> type) {
+        return this.map.getBuildings(type).size();
+    }
+
+    public House findResidence(String resident) {
+        return this.map.findResidence(resident);
+    }
+
+    public String directory() {
+        return this.map.toString();
+    }
+
+}
@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * The ShardedCampusMap class splits a large directory of buildings across several shards
+ * Each building lives in the shard picked by the hash of its name, so lookups by name go to exactly one shard,
+ * while directory and search queries are sent to every shard in parallel and their answers combined
+ * Shards are reached only through the CampusShard interface, so they can be local maps or remote ones
+ */
+
+public class ShardedCampusMap {
+
+    /** The shards that hold the buildings */
+    private final CampusShard[] shards;
+
+    /**
+     * Creates a new ShardedCampusMap with the given number of empty shards, all in this process
+     *
+     * @param nShards the number of shards
+     * @throws RuntimeException if the number of shards is not positive
+     */
+
+    public ShardedCampusMap(int nShards) {
+        this(localShards(nShards));
+    }
+
+    /**
+     * Creates a new ShardedCampusMap over the given shards
+     * Buildings are placed by the hash of their name modulo the number of shards, so the same shards must always be given in the same order
+     *
+     * @param shards the shards, e.g. LocalCampusShards or shards on other machines
+     * @throws RuntimeException if no shards are given
+     */
+
+    public ShardedCampusMap(CampusShard... shards) {
+        if (shards.length < 1) {
+            throw new RuntimeException("Cannot construct a sharded map with fewer than 1 shard.");
+        }
+        this.shards = shards.clone();
+    }
+
+    /**
+     * Creates the given number of empty shards in this process
+     *
+     * @param nShards the number of shards
+     * @return the shards
+     * @throws RuntimeException if the number of shards is not positive
+     */
+
+    private static CampusShard[] localShards(int nShards) {
+        if (nShards < 1) {
+            throw new RuntimeException("Cannot construct a sharded map with fewer than 1 shard.");
+        }
+        CampusShard[] shards = new CampusShard[nShards];
+        for (int i = 0; i < nShards; i++) {
+            shards[i] = new LocalCampusShard();
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the shard a building with the given name belongs in
+     *
+     * @param name the name of the building
+     * @return the shard for that name
+     */
+
+    private CampusShard shardFor(String name) {
+        return this.shards[Math.floorMod(Objects.hashCode(name), this.shards.length)];
+    }
+
+    /**
+     * Returns the number of shards
+     *
+     * @return the number of shards
+     */
+
+    public int nShards() {
+        return this.shards.length;
+    }
+
+    /**
+     * Adds a Building to the shard for its name
+     *
+     * @param b the Building to add
+     */
+
+    public void addBuilding(Building b) {
+        shardFor(b.getName()).addBuilding(b);
+    }
+
+    /**
+     * Removes a Building from the shard for its name
+     *
+     * @param b the Building to remove
+     * @return the removed Building
+     */
+
+    public Building removeBuilding(Building b) {
+        return shardFor(b.getName()).removeBuilding(b);
+    }
+
+    /**
+     * Finds a building by name, asking only the shard for that name
+     *
+     * @param name the name of the building
+     * @return the Building with that name, or null if there is none
+     */
+
+    public Building getBuilding(String name) {
+        return shardFor(name).getBuilding(name);
+    }
+
+    /**
+     * Finds every building of a type across all shards
+     *
+     * @param type the type of building, e.g. House.class
+     * @return the buildings of that type, shard by shard
+     */
+
+    public <T extends Building> ArrayList<T> getBuildings(Class<T> type) {
+        return Arrays.stream(this.shards).parallel()
+            .flatMap(shard -> shard.getBuildings(type).stream())
+            .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Counts the buildings of a type across all shards
+     *
+     * @param type the type of building, e.g. House.class, or Building.class for all of them
+     * @return the number of buildings of that type
+     */
+
+    public int countBuildings(Class<? extends Building> type) {
+        return Arrays.stream(this.shards).parallel().mapToInt(shard -> shard.countBuildings(type)).sum();
+    }
+
+    /**
+     * Finds the house a student lives in, asking every shard in parallel
+     *
+     * @param resident the name of the student
+     * @return the House the student lives in, or null if they do not live on this map
+     */
+
+    public House findResidence(String resident) {
+        return Arrays.stream(this.shards).parallel()
+            .map(shard -> shard.findResidence(resident))
+            .filter(Objects::nonNull)
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Returns the directory of every shard, one section per shard
+     *
+     * @return the combined directory
+     */
+
+    public String toString() {
+        List<String> sections = Arrays.stream(this.shards).parallel()
+            .map(CampusShard::directory)
+            .collect(Collectors.toList());
+        StringBuilder directory = new StringBuilder();
+        for (int i = 0; i < sections.size(); i++) {
+            if (i > 0) {
+                directory.append("\n");
+            }
+            directory.append("SHARD ").append(i + 1).append(": ").append(sections.get(i));
+        }
+        return directory.toString();
+    }
+
+    public static void main(String[] args) {
+        ShardedCampusMap campus = new ShardedCampusMap(3);
+        campus.addBuilding(new Building("Ford Hall", "100 Green Street Northampton, MA 01063", 4));
+        campus.addBuilding(new Building("Sabin Reed", "44 College Ln, Northampton, MA 01063", 3));
+        campus.addBuilding(new Library("Neilson Library", "7 Neilson Drive, Northampton, MA 01063", 5, true));
+        campus.addBuilding(new House("Chapin House", "50 Elm Street, Northampton, MA 01063", 5, true, false, 50));
+        campus.addBuilding(new House("King House", "10 Elm Street, Northampton, MA 01063", 4, true, true, 100));
+        campus.addBuilding(new Cafe("Campus Cafe", "1 Chapin Way, Northampton, MA 01063", 1, 100, 100, 100, 100, false, 8, 22));
+
+        System.out.println(campus);
+        ((House) campus.getBuilding("King House")).moveIn("Jordan");
+        System.out.println("Jordan lives in " + campus.findResidence("Jordan").getName());
+        System.out.println("Houses across all shards: " + campus.countBuildings(House.class));
+    }
+
+}